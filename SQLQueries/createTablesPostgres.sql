@@ -36,4 +36,7 @@ CREATE TABLE IF NOT EXISTS likes (
     CONSTRAINT fk_user_id FOREIGN KEY (userId) REFERENCES users(id),
     CONSTRAINT fk_short_id FOREIGN KEY (shortId) REFERENCES shorts(id),
     CONSTRAINT fk_ownerId FOREIGN KEY (ownerId) REFERENCES users(id)
-);
\ No newline at end of file
+);
+
+-- Serves the newest shorts of each owner, as the feed query reads them
+CREATE INDEX IF NOT EXISTS idx_shorts_owner_timestamp ON shorts (ownerId, timestamp DESC, id DESC);
@@ -3,6 +3,8 @@ package srv;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.MediaType;
+import storageConnections.CacheFamily;
+import storageConnections.OffHeapBlobCache;
 
 /**
  * Class with control endpoints.
@@ -54,4 +56,24 @@ public class ControlResource
 		return sb.toString();
 	}
 
+	/**
+	 * Reports the hit, miss and eviction counters of this instance's in-process blob cache.
+	 */
+	@Path("/cache")
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public String cache() {
+		return OffHeapBlobCache.getInstance().stats();
+	}
+
+	/**
+	 * Reports the hit, miss and load counters of each cache family in this instance.
+	 */
+	@Path("/caches")
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public String caches() {
+		return CacheFamily.statsOfAll();
+	}
+
 }
@@ -24,4 +24,20 @@ public class AzureCosmosDB_NoSQL {
 
         return instance;
     }
+
+    /**
+     * Returns a container accessed through the asynchronous client, for issuing many queries at once.
+     */
+    public synchronized static CosmosAsyncContainer getAsyncContainer(String containerName) {
+        CosmosAsyncClient client = new CosmosClientBuilder()
+                .endpoint(COSMOSDB_URL)
+                .key(COSMOSDB_KEY)
+                .gatewayMode()
+                .consistencyLevel(ConsistencyLevel.SESSION)
+                .connectionSharingAcrossClientsEnabled(true)
+                .contentResponseOnWriteEnabled(true)
+                .buildAsyncClient();
+
+        return client.getDatabase(COSMOSDB_DATABASE).getContainer(containerName);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package storageConnections;
+
+import java.util.Collection;
+
+/**
+ * Where cache families keep their serialized entries: Redis, the memory of this instance,
+ * both of them layered, or nowhere at all.
+ *
+ * Backends never fail: reads that cannot be served are misses, and writes that cannot be
+ * done are dropped, so the database is the fallback for whatever the cache is missing.
+ *
+ * Keys may be scoped, typically by a user: scoped keys are tagged with the generation of
+ * their scope and their own version (eg. shorts_user:{userId}#{generation}.{version}), so
+ * bumping the generation invalidates every key in the scope at once, deleting a key bumps its
+ * version, and the older entries are left to expire with their TTL. A version outlives the
+ * entries filled while it was current, so that it is never reset while they can be read.
+ */
+public interface CacheBackend {
+
+	/**
+	 * A key tagged with the generation and version it was read in, and the value it had, or
+	 * null. Whatever is loaded after a miss must be cached under that same key, so that an
+	 * invalidation in the meantime, of the scope or of the key alone, also applies to it.
+	 */
+	record Tagged(String key, String value) {
+	}
+
+	/**
+	 * Returns the value of a key, or null if it is not cached.
+	 */
+	String get(String key);
+
+	/**
+	 * Caches the value of a key for ttl seconds, after it was changed.
+	 */
+	void set(String key, String value, long ttl);
+
+	/**
+	 * Caches the value of a key for ttl seconds, after it was loaded on a miss. Other
+	 * instances cannot be holding a key that missed, so unlike set() they are not told.
+	 */
+	default void fill(String key, String value, long ttl) {
+		set(key, value, ttl);
+	}
+
+	/**
+	 * Drops keys, in one round trip.
+	 */
+	void delete(Collection<String> keys);
+
+	/**
+	 * Makes a key expire within ttl seconds, unless it expires sooner already.
+	 */
+	void expire(String key, long ttl);
+
+	/**
+	 * Reads a key of a scope in its current generation, returning null if that cannot be done.
+	 */
+	Tagged get(String scope, String key);
+
+	/**
+	 * Caches the value of a key read with get(scope, key), for ttl seconds.
+	 */
+	void fill(Tagged tagged, String value, long ttl);
+
+	/**
+	 * Drops a key of a scope, bumping its version.
+	 */
+	void delete(String scope, String key);
+
+	/**
+	 * Invalidates every key of a scope.
+	 */
+	void bump(String scope);
+}
@@ -0,0 +1,188 @@
+package storageConnections;
+
+import static tukano.api.Result.ErrorCode.NOT_FOUND;
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import tukano.api.Result;
+
+/**
+ * Cached values of one kind, under keys made of the name of the family and their ids
+ * (eg. short:{shortId}), read through and written through a cache backend.
+ *
+ * A value that misses is loaded once per key (see SingleFlight) and cached for the TTL of
+ * the family, cut short by up to CACHE_TTL_JITTER of it at random, so that values cached
+ * together do not all expire together. Values that were not found are cached as MISSING for
+ * NEGATIVE_CACHE_TTL seconds, so lookups of what does not exist stay away from the database
+ * without lingering long after a write path missed invalidating them.
+ *
+ * Families may be scoped, in which case their keys are tagged with the generation of the
+ * scope of each id (see CacheBackend), and all of them are invalidated by bumping it.
+ */
+public class CacheFamily<V> {
+
+	public static final String MISSING = "!";
+
+	private static final List<CacheFamily<?>> families = new CopyOnWriteArrayList<>();
+
+	private final String name;
+	private final Serializer<V> serializer;
+	private final long ttl;
+	private final long negativeTtl;
+	private final double jitter;
+	private final ToLongFunction<V> ttlOf;
+	private final Function<String, String> scopeOf;
+	private final CacheBackend backend;
+	private final SingleFlight loads = new SingleFlight();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loaded = new AtomicLong();
+
+	/**
+	 * @param ttl     the time to live of values, in seconds
+	 * @param ttlOf   overrides the time to live of some values, returning 0 for the others
+	 * @param scopeOf returns the scope of an id, or is null if the family is not scoped
+	 */
+	public CacheFamily(String name, Serializer<V> serializer, long ttl, long negativeTtl, double jitter,
+			ToLongFunction<V> ttlOf, Function<String, String> scopeOf, CacheBackend backend) {
+		this.name = name;
+		this.serializer = serializer;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.jitter = jitter;
+		this.ttlOf = ttlOf;
+		this.scopeOf = scopeOf;
+		this.backend = backend;
+
+		families.add(this);
+	}
+
+	/**
+	 * Returns the value of an id, from the cache, or from the loader, caching it.
+	 */
+	public Result<V> get(String id, Supplier<Result<V>> loader) {
+		var cached = lookup(id);
+		var res = decode(cached);
+		if (res != null) {
+			hits.incrementAndGet();
+			return res;
+		}
+
+		misses.incrementAndGet();
+		return loads.load(key(id), () -> decode(lookup(id)), () -> load(cached, loader));
+	}
+
+	/**
+	 * Caches the value of an id, after it was changed.
+	 */
+	public void put(String id, V value) {
+		backend.set(key(id), serializer.encode(value), jittered(ttl(value)));
+	}
+
+	/**
+	 * Drops the value of an id.
+	 */
+	public void invalidate(String id) {
+		if (scopeOf != null)
+			backend.delete(scopeOf.apply(id), key(id));
+		else
+			backend.delete(List.of(key(id)));
+	}
+
+	/**
+	 * Drops the values of ids of a family that is not scoped, in one round trip.
+	 */
+	public void invalidate(Collection<String> ids) {
+		backend.delete(ids.stream().map(this::key).toList());
+	}
+
+	/**
+	 * Makes the value of an id expire within ttl seconds, unless it expires sooner already.
+	 */
+	public void expire(String id, long ttl) {
+		backend.expire(key(id), ttl);
+	}
+
+	/**
+	 * Hit, miss and load counters of the family, in this instance.
+	 */
+	public String stats() {
+		long h = hits.get(), m = misses.get();
+		return String.format("%s: hits: %d, misses: %d, loads: %d, hit ratio: %.3f",
+				name, h, m, loaded.get(), h + m == 0 ? 0.0 : (double) h / (h + m));
+	}
+
+	/**
+	 * Counters of every family, one per line.
+	 */
+	public static String statsOfAll() {
+		var sb = new StringBuilder();
+		families.forEach(f -> sb.append(f.stats()).append('\n'));
+		return sb.toString();
+	}
+
+	private String key(String id) {
+		return name + ":" + id;
+	}
+
+	/**
+	 * Reads the entry of an id, returning null if that cannot be done.
+	 */
+	private CacheBackend.Tagged lookup(String id) {
+		if (scopeOf != null)
+			return backend.get(scopeOf.apply(id), key(id));
+		return new CacheBackend.Tagged(key(id), backend.get(key(id)));
+	}
+
+	/**
+	 * Returns the cached value, NOT_FOUND if it is cached as missing, or null if it is not cached.
+	 */
+	private Result<V> decode(CacheBackend.Tagged cached) {
+		if (cached == null || cached.value() == null)
+			return null;
+		if (cached.value().equals(MISSING))
+			return error(NOT_FOUND);
+
+		var value = serializer.decode(cached.value());
+		return value != null ? ok(value) : null;
+	}
+
+	private Result<V> load(CacheBackend.Tagged cached, Supplier<Result<V>> loader) {
+		loaded.incrementAndGet();
+		var res = loader.get();
+		if (cached == null)
+			return res;
+
+		if (res.isOK())
+			fill(cached, serializer.encode(res.value()), jittered(ttl(res.value())));
+		else if (res.error() == NOT_FOUND)
+			fill(cached, MISSING, jittered(negativeTtl));
+		return res;
+	}
+
+	private void fill(CacheBackend.Tagged cached, String value, long ttl) {
+		if (scopeOf != null)
+			backend.fill(cached, value, ttl);
+		else
+			backend.fill(cached.key(), value, ttl);
+	}
+
+	private long ttl(V value) {
+		var override = ttlOf.applyAsLong(value);
+		return override > 0 ? override : ttl;
+	}
+
+	private long jittered(long ttl) {
+		return Math.max(1, ttl - (long) (ttl * jitter * ThreadLocalRandom.current().nextDouble()));
+	}
+}
@@ -0,0 +1,107 @@
+package storageConnections;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import tukano.api.Short;
+import tukano.api.User;
+import utils.Props;
+
+/**
+ * The cache families of the repositories, and the caching policy of each, in one place.
+ *
+ * CACHE_BACKEND picks where they are cached: "layered" (the default) keeps them in this
+ * instance for up to NEAR_CACHE_TTL seconds, in front of Redis; "redis" and "local" keep them
+ * in either one alone, and "none" caches nothing. Each family is cached for CACHE_TTL_{NAME}
+ * seconds (eg. CACHE_TTL_SHORT), 3600 by default, and the lists of a user (their shorts, their
+ * followers and the likes of their shorts) are scoped by the user.
+ */
+public class Caches {
+
+	public static final String SHORT = "short";
+	public static final String USER = "user";
+	public static final String SHORTS_OF_USER = "shorts_user";
+	public static final String FOLLOWERS_OF_USER = "followers_user";
+	public static final String LIKES_OF_SHORT = "likes_short";
+
+	private static final TypeReference<List<String>> IDS = new TypeReference<>() {};
+
+	private static CacheBackend backend;
+
+	synchronized public static CacheBackend backend() {
+		if (backend == null)
+			backend = switch (Props.get("CACHE_BACKEND", "layered")) {
+				case "redis" -> new RedisCacheBackend();
+				case "local" -> new LocalCacheBackend();
+				case "none" -> new NoCacheBackend();
+				default -> new LayeredCacheBackend(new LocalCacheBackend(Long.parseLong(Props.get("NEAR_CACHE_TTL", "30"))),
+						new RedisCacheBackend());
+			};
+		return backend;
+	}
+
+	public static CacheFamily<Short> shorts() {
+		return shorts(shrt -> 0);
+	}
+
+	/**
+	 * @param ttlOf overrides the time to live of some shorts, returning 0 for the others
+	 */
+	public static CacheFamily<Short> shorts(ToLongFunction<Short> ttlOf) {
+		return family(SHORT, Serializer.json(Short.class), ttlOf);
+	}
+
+	public static CacheFamily<User> users() {
+		return family(USER, Serializer.json(User.class), user -> 0);
+	}
+
+	public static CacheFamily<List<String>> shortsOfUser() {
+		return ids(SHORTS_OF_USER, userId -> userId);
+	}
+
+	public static CacheFamily<List<String>> followersOfUser() {
+		return ids(FOLLOWERS_OF_USER, userId -> userId);
+	}
+
+	public static CacheFamily<List<String>> likesOfShort() {
+		return ids(LIKES_OF_SHORT, Caches::ownerOf);
+	}
+
+	/**
+	 * Invalidates every list cached for a user.
+	 */
+	public static void invalidateUser(String userId) {
+		backend().bump(userId);
+	}
+
+	// Empty lists are cached as briefly as what was not found
+	private static CacheFamily<List<String>> ids(String name, Function<String, String> scopeOf) {
+		var negativeTtl = negativeTtl();
+		return new CacheFamily<>(name, Serializer.json(IDS), ttl(name), negativeTtl, jitter(),
+				ids -> ids.isEmpty() ? negativeTtl : 0, scopeOf, backend());
+	}
+
+	private static <V> CacheFamily<V> family(String name, Serializer<V> serializer, ToLongFunction<V> ttlOf) {
+		return new CacheFamily<>(name, serializer, ttl(name), negativeTtl(), jitter(), ttlOf, null, backend());
+	}
+
+	private static long ttl(String name) {
+		return Long.parseLong(Props.get("CACHE_TTL_" + name.toUpperCase(), "3600"));
+	}
+
+	private static long negativeTtl() {
+		return Long.parseLong(Props.get("NEGATIVE_CACHE_TTL", "60"));
+	}
+
+	private static double jitter() {
+		return Double.parseDouble(Props.get("CACHE_TTL_JITTER", "0.1"));
+	}
+
+	// Short ids are {ownerId}:{uuid}
+	private static String ownerOf(String shortId) {
+		return shortId.substring(0, shortId.lastIndexOf(':'));
+	}
+}
@@ -0,0 +1,216 @@
+package storageConnections;
+
+import com.azure.cosmos.CosmosContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemIdentity;
+import com.azure.cosmos.models.CosmosItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.PartitionKey;
+import tukano.api.Short;
+import tukano.impl.data.LikeCounter;
+import utils.Props;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * The like counters of shorts in Cosmos DB, sharded for hot shorts.
+ *
+ * The number of likes of a short is its totalLikes, in the document of the short, which is
+ * a single logical partition with a capped throughput. What loads that partition is the rate of
+ * patches, not of likes, as likes are written behind in batches (see LikeAggregator). A short
+ * is promoted once this instance patches it LIKES_HOT_RATE or more times per second, or as
+ * soon as a patch is throttled, which tells the partition is hot whichever instances load it:
+ * LIKES_SHARDS counters are created (likecount:{shortId}:{n}), each a partition of its own, and
+ * then their header (likecount:{shortId}), which tells readers to add them to the totalLikes of
+ * the short. Likes of a promoted short are then counted by a counter picked at random.
+ *
+ * Since likes are counted right whichever of the counters or the short they go to, writers
+ * that have not seen a short promoted yet keep writing to the short meanwhile. The likes of
+ * a promoted short change without its document, so a promoted short is only cached for
+ * LIKES_SHARD_CACHE_TTL seconds, after which its counters are added up again.
+ */
+public class CosmosLikeCounters {
+
+    private static final Logger Log = Logger.getLogger(CosmosLikeCounters.class.getName());
+    private static final String COUNTER_PREFIX = "likecount:";
+    private static final long RATE_WINDOW = 1000;
+    private static final int THROTTLED = 429;
+
+    private final CosmosContainer container;
+    private final int shards;
+    private final long hotRate;
+    private final long cacheTtl;
+    private final Set<String> promoted = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> window = new HashMap<>();
+    private long windowStart;
+
+    public CosmosLikeCounters(CosmosContainer container) {
+        this.container = container;
+        this.shards = Integer.parseInt(Props.get("LIKES_SHARDS", "16"));
+        this.hotRate = Long.parseLong(Props.get("LIKES_HOT_RATE", "100"));
+        this.cacheTtl = Long.parseLong(Props.get("LIKES_SHARD_CACHE_TTL", "5"));
+    }
+
+    /**
+     * How long, in seconds, a promoted short may be cached.
+     */
+    public long cacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Whether the likes of a short are counted by its counters, as far as seen here.
+     */
+    public boolean isPromoted(String shortId) {
+        return promoted.contains(shortId);
+    }
+
+    /**
+     * Changes the number of likes of a short by delta.
+     *
+     * @return the short, if its totalLikes was changed, or null if one of its counters was
+     */
+    public Short increment(String shortId, int delta) {
+        if (!promoted.contains(shortId) && observe(shortId) >= hotRate)
+            promote(shortId);
+
+        if (promoted.contains(shortId) && incrementCounter(shortId, delta))
+            return null;
+
+        var increment = CosmosPatchOperations.create().increment("/totalLikes", delta);
+        try {
+            return container.patchItem(shortId, new PartitionKey(shortId), increment, Short.class).getItem();
+        } catch (CosmosException e) {
+            if (e.getStatusCode() != THROTTLED)
+                throw e;
+            promote(shortId);
+            if (!incrementCounter(shortId, delta))
+                throw e;
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of likes of a promoted short, adding up its counters, or null if
+     * the short was not promoted, so its totalLikes is the number of likes.
+     */
+    public Long total(Short shrt) {
+        var header = read(headerId(shrt.getid()));
+        if (header == null)
+            return null;
+
+        promoted.add(shrt.getid());
+        var ids = new ArrayList<CosmosItemIdentity>();
+        for (int i = 0; i < header.getShards(); i++) {
+            var id = counterId(shrt.getid(), i);
+            ids.add(new CosmosItemIdentity(new PartitionKey(id), id));
+        }
+
+        long total = shrt.totalLikes();
+        for (var counter : container.readMany(ids, LikeCounter.class).getResults())
+            total += counter.getCount();
+        return total;
+    }
+
+    /**
+     * Drops the counters of a deleted short.
+     */
+    public void drop(String shortId) {
+        promoted.remove(shortId);
+
+        var header = read(headerId(shortId));
+        if (header == null)
+            return;
+
+        // the header goes first, so the counters are never read without it
+        delete(header.getid());
+        for (int i = 0; i < header.getShards(); i++)
+            delete(counterId(shortId, i));
+    }
+
+    /**
+     * Changes the number of likes of a promoted short in one of its counters.
+     *
+     * @return false, if the counters are gone
+     */
+    private boolean incrementCounter(String shortId, int delta) {
+        var id = counterId(shortId, ThreadLocalRandom.current().nextInt(shards));
+        try {
+            container.patchItem(id, new PartitionKey(id), CosmosPatchOperations.create().increment("/count", delta), LikeCounter.class);
+            return true;
+        } catch (CosmosException e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+            // the counters were dropped along with the short
+            promoted.remove(shortId);
+            return false;
+        }
+    }
+
+    private void promote(String shortId) {
+        for (int i = 0; i < shards; i++)
+            create(new LikeCounter(counterId(shortId, i), shortId, 0, 0));
+        create(new LikeCounter(headerId(shortId), shortId, shards, 0));
+
+        promoted.add(shortId);
+        Log.info(() -> format("Sharding the like counter of %s in %d", shortId, shards));
+    }
+
+    /**
+     * Counts a patch of the totalLikes of a short in the current window, returning how many
+     * there were so far.
+     */
+    private synchronized long observe(String shortId) {
+        var now = System.currentTimeMillis();
+        if (now - windowStart >= RATE_WINDOW) {
+            window.clear();
+            windowStart = now;
+        }
+        return window.merge(shortId, 1L, Long::sum);
+    }
+
+    private LikeCounter read(String id) {
+        try {
+            return container.readItem(id, new PartitionKey(id), LikeCounter.class).getItem();
+        } catch (CosmosException e) {
+            if (e.getStatusCode() == 404)
+                return null;
+            throw e;
+        }
+    }
+
+    private void create(LikeCounter counter) {
+        try {
+            container.createItem(counter);
+        } catch (CosmosException e) {
+            // promoted concurrently, keeping what was counted
+            if (e.getStatusCode() != 409)
+                throw e;
+        }
+    }
+
+    private void delete(String id) {
+        try {
+            container.deleteItem(id, new PartitionKey(id), new CosmosItemRequestOptions());
+        } catch (CosmosException e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+        }
+    }
+
+    private static String headerId(String shortId) {
+        return COUNTER_PREFIX + shortId;
+    }
+
+    private static String counterId(String shortId, int shard) {
+        return COUNTER_PREFIX + shortId + ":" + shard;
+    }
+}
@@ -0,0 +1,177 @@
+package storageConnections;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+import utils.Sleep;
+
+/**
+ * Cache entries in the memory of this instance (near), in front of a backend shared by every
+ * instance (far), so that hot entries are read without a round trip.
+ *
+ * Paths that change an entry drop its key from the near caches of the other instances, by
+ * publishing it on the cache_invalidation channel. Paths that only fill the cache after a
+ * miss do not publish anything, as other instances cannot be holding a key that was missing
+ * from the far cache without having been told it changed. Invalidations are lost while an
+ * instance is not subscribed, so its near cache is cleared whenever the subscription drops and
+ * when it is made again, and an entry read from the far cache just before an invalidation is
+ * stored after it may outlive it for no longer than the near cache keeps entries.
+ *
+ * The subscription has a connection of its own, outside the pool, whose socket timeout outlasts
+ * the quiet spells of the channel: it is pinged every SUBSCRIBER_PING_MS, so that only a
+ * connection that stopped answering times out.
+ *
+ * Scoped keys are only kept in the far cache, where their generation is.
+ */
+public class LayeredCacheBackend implements CacheBackend {
+	private static final Logger Log = Logger.getLogger(LayeredCacheBackend.class.getName());
+
+	private static final String CHANNEL = "cache_invalidation";
+	private static final String INSTANCE = UUID.randomUUID().toString();
+	private static final int RESUBSCRIBE_MS = 1000;
+	private static final int SUBSCRIBER_PING_MS = 10000;
+	private static final int SUBSCRIBER_TIMEOUT_MS = 3 * SUBSCRIBER_PING_MS;
+
+	private static final List<LocalCacheBackend> nears = new CopyOnWriteArrayList<>();
+	private static Thread subscriber;
+
+	private final LocalCacheBackend near;
+	private final CacheBackend far;
+
+	public LayeredCacheBackend(LocalCacheBackend near, CacheBackend far) {
+		this.near = near;
+		this.far = far;
+
+		nears.add(near);
+		subscribe();
+	}
+
+	@Override
+	public String get(String key) {
+		var value = near.get(key);
+		if (value == null) {
+			value = far.get(key);
+			if (value != null)
+				near.fill(key, value, 0);
+		}
+		return value;
+	}
+
+	@Override
+	public void set(String key, String value, long ttl) {
+		far.set(key, value, ttl);
+		near.set(key, value, ttl);
+		publish(List.of(key));
+	}
+
+	@Override
+	public void fill(String key, String value, long ttl) {
+		far.fill(key, value, ttl);
+		near.fill(key, value, ttl);
+	}
+
+	@Override
+	public void delete(Collection<String> keys) {
+		near.delete(keys);
+		far.delete(keys);
+		publish(keys);
+	}
+
+	@Override
+	public void expire(String key, long ttl) {
+		near.expire(key, ttl);
+		far.expire(key, ttl);
+		publish(List.of(key));
+	}
+
+	@Override
+	public Tagged get(String scope, String key) {
+		return far.get(scope, key);
+	}
+
+	@Override
+	public void fill(Tagged tagged, String value, long ttl) {
+		far.fill(tagged, value, ttl);
+	}
+
+	@Override
+	public void delete(String scope, String key) {
+		far.delete(scope, key);
+	}
+
+	@Override
+	public void bump(String scope) {
+		far.bump(scope);
+	}
+
+	/**
+	 * Drops keys from the near caches of every other instance, in one round trip.
+	 */
+	private static void publish(Collection<String> keys) {
+		if (keys.isEmpty())
+			return;
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			keys.forEach(key -> pipeline.publish(CHANNEL, INSTANCE + " " + key));
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to publish invalidation of " + keys.size() + " keys: " + e.getMessage());
+		}
+	}
+
+	private static synchronized void subscribe() {
+		if (subscriber != null)
+			return;
+
+		subscriber = new Thread(() -> {
+			var listener = new JedisPubSub() {
+				@Override
+				public void onSubscribe(String channel, int subscribedChannels) {
+					nears.forEach(LocalCacheBackend::clear);
+				}
+
+				@Override
+				public void onMessage(String channel, String message) {
+					var sep = message.indexOf(' ');
+					if (sep > 0 && !message.startsWith(INSTANCE))
+						nears.forEach(n -> n.delete(List.of(message.substring(sep + 1))));
+				}
+			};
+			var pinger = Executors.newSingleThreadScheduledExecutor(r -> {
+				var thread = new Thread(r, "near-cache-invalidations-ping");
+				thread.setDaemon(true);
+				return thread;
+			});
+			pinger.scheduleWithFixedDelay(() -> {
+				try {
+					if (listener.isSubscribed())
+						listener.ping();
+				} catch (JedisException e) {
+					// the subscriber times out and resubscribes
+				}
+			}, SUBSCRIBER_PING_MS, SUBSCRIBER_PING_MS, TimeUnit.MILLISECONDS);
+
+			for (;;) {
+				try (Jedis jedis = RedisCache.newConnection(SUBSCRIBER_TIMEOUT_MS)) {
+					jedis.subscribe(listener, CHANNEL);
+				} catch (JedisException e) {
+					Log.warning("Redis access failed, resubscribing to cache invalidations: " + e.getMessage());
+				}
+				// the subscription only ends when the connection is lost
+				nears.forEach(LocalCacheBackend::clear);
+				Sleep.ms(RESUBSCRIBE_MS);
+			}
+		}, "near-cache-invalidations");
+		subscriber.setDaemon(true);
+		subscriber.start();
+	}
+}
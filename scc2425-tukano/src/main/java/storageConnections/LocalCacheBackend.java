@@ -0,0 +1,153 @@
+package storageConnections;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import utils.Props;
+
+/**
+ * Cache entries in the memory of this instance, seen by no other.
+ *
+ * Entries are admitted and evicted by W-TinyLFU (Caffeine), within NEAR_CACHE_MAX_ENTRIES entries
+ * and NEAR_CACHE_MAX_BYTES bytes, and expire after their TTL, or after maxTtl seconds if that is
+ * sooner. Values are kept serialized, so entries are immutable and weighed by their length.
+ *
+ * The versions of scoped keys are kept apart, for at least VERSION_TTL seconds after they are
+ * bumped and for as long as an entry filled in them.
+ */
+public class LocalCacheBackend implements CacheBackend {
+
+	private final Cache<String, String> cache;
+	private final long maxTtl;
+	private final Map<String, Long> generations = new ConcurrentHashMap<>();
+	private final Cache<String, Long> versions;
+
+	private static final long VERSION_TTL = 3600;
+
+	public LocalCacheBackend() {
+		this(Long.MAX_VALUE);
+	}
+
+	public LocalCacheBackend(long maxTtl) {
+		var maxEntries = Long.parseLong(Props.get("NEAR_CACHE_MAX_ENTRIES", "10000"));
+		var maxBytes = Long.parseLong(Props.get("NEAR_CACHE_MAX_BYTES", String.valueOf(16 * 1024 * 1024)));
+
+		// Caffeine bounds either the number or the weight of entries, so an entry weighs at
+		// least its share of the bytes, and no more than maxEntries entries ever fit
+		var minWeight = (int) Math.max(1, maxBytes / maxEntries);
+		var maxTtlNanos = TimeUnit.SECONDS.toNanos(maxTtl);
+		this.cache = Caffeine.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher((String key, String value) -> Math.max(minWeight, 64 + 2 * (key.length() + value.length())))
+				.expireAfter(new Expiry<String, String>() {
+					@Override
+					public long expireAfterCreate(String key, String value, long currentTime) {
+						return maxTtlNanos;
+					}
+
+					@Override
+					public long expireAfterUpdate(String key, String value, long currentTime, long currentDuration) {
+						return maxTtlNanos;
+					}
+
+					@Override
+					public long expireAfterRead(String key, String value, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.build();
+		this.maxTtl = maxTtl;
+		this.versions = Caffeine.newBuilder()
+				.expireAfter(new Expiry<String, Long>() {
+					@Override
+					public long expireAfterCreate(String key, Long version, long currentTime) {
+						return TimeUnit.SECONDS.toNanos(VERSION_TTL);
+					}
+
+					@Override
+					public long expireAfterUpdate(String key, Long version, long currentTime, long currentDuration) {
+						return Math.max(currentDuration, TimeUnit.SECONDS.toNanos(VERSION_TTL));
+					}
+
+					@Override
+					public long expireAfterRead(String key, Long version, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.build();
+	}
+
+	@Override
+	public String get(String key) {
+		return cache.getIfPresent(key);
+	}
+
+	@Override
+	public void set(String key, String value, long ttl) {
+		var expires = ttl > 0 ? Math.min(ttl, maxTtl) : maxTtl;
+		cache.policy().expireVariably().ifPresent(policy -> policy.put(key, value, expires, TimeUnit.SECONDS));
+	}
+
+	@Override
+	public void delete(Collection<String> keys) {
+		cache.invalidateAll(keys);
+	}
+
+	@Override
+	public void expire(String key, long ttl) {
+		cache.policy().expireVariably().ifPresent(policy -> policy.getExpiresAfter(key, TimeUnit.SECONDS).ifPresent(left -> {
+			if (left > ttl)
+				policy.setExpiresAfter(key, ttl, TimeUnit.SECONDS);
+		}));
+	}
+
+	@Override
+	public Tagged get(String scope, String key) {
+		var tagged = tag(scope, key);
+		return new Tagged(tagged, get(tagged));
+	}
+
+	@Override
+	public void fill(Tagged tagged, String value, long ttl) {
+		fill(tagged.key(), value, ttl);
+
+		var key = tagged.key().substring(0, tagged.key().lastIndexOf('#'));
+		var expires = ttl > 0 ? Math.min(ttl, maxTtl) : maxTtl;
+		versions.policy().expireVariably().ifPresent(policy -> policy.getExpiresAfter(key, TimeUnit.SECONDS).ifPresent(left -> {
+			if (left < expires)
+				policy.setExpiresAfter(key, expires, TimeUnit.SECONDS);
+		}));
+	}
+
+	@Override
+	public void delete(String scope, String key) {
+		// the version goes first, so a loader that read the old one fills an entry no longer read
+		var tagged = tag(scope, key);
+		versions.asMap().merge(key, 1L, Long::sum);
+		delete(List.of(tagged));
+	}
+
+	@Override
+	public void bump(String scope) {
+		generations.merge(scope, 1L, Long::sum);
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	private String tag(String scope, String key) {
+		var version = versions.getIfPresent(key);
+		return key + "#" + generations.getOrDefault(scope, 0L) + "." + (version != null ? version : 0L);
+	}
+}
@@ -0,0 +1,43 @@
+package storageConnections;
+
+import java.util.Collection;
+
+/**
+ * Caches nothing, so that every read goes to the database, as a baseline for benchmarks.
+ */
+public class NoCacheBackend implements CacheBackend {
+
+	@Override
+	public String get(String key) {
+		return null;
+	}
+
+	@Override
+	public void set(String key, String value, long ttl) {
+	}
+
+	@Override
+	public void delete(Collection<String> keys) {
+	}
+
+	@Override
+	public void expire(String key, long ttl) {
+	}
+
+	@Override
+	public Tagged get(String scope, String key) {
+		return null;
+	}
+
+	@Override
+	public void fill(Tagged tagged, String value, long ttl) {
+	}
+
+	@Override
+	public void delete(String scope, String key) {
+	}
+
+	@Override
+	public void bump(String scope) {
+	}
+}
@@ -0,0 +1,256 @@
+package storageConnections;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utils.Props;
+
+/**
+ * In-process LRU cache of hot blob contents, kept in front of the Redis blob cache.
+ *
+ * Contents live outside the Java heap, so they are never traced or copied by the garbage
+ * collector, in a single direct buffer of BLOB_L1_CACHE_SIZE bytes allocated up front (the
+ * JVM must allow at least as much direct memory). It is split in pages of BLOB_L1_PAGE_SIZE
+ * bytes, which are handed back for reuse as entries are evicted, so the cache never holds more
+ * direct memory than that, whatever the garbage collector does. Pages of an evicted entry are
+ * only reused once the streams still reading it are closed. Entries expire after BLOB_L1_TTL
+ * seconds, which bounds how long a blob deleted through another instance can still be served
+ * by this one.
+ */
+public class OffHeapBlobCache {
+
+	private static OffHeapBlobCache instance;
+
+	private final int pageSize;
+	private final long capacity;
+	private final long maxEntrySize;
+	private final long ttl;
+	private final ByteBuffer pages;
+	private final int[] freePages;
+	private int free;
+	private final LinkedHashMap<String, Entry> entries;
+	private long used;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	static class Entry {
+		final int[] pages;
+		final int length;
+		final long expires;
+		int readers;
+		boolean dropped;
+
+		Entry(int[] pages, int length, long expires) {
+			this.pages = pages;
+			this.length = length;
+			this.expires = expires;
+		}
+	}
+
+	synchronized public static OffHeapBlobCache getInstance() {
+		if (instance == null)
+			instance = new OffHeapBlobCache();
+		return instance;
+	}
+
+	private OffHeapBlobCache() {
+		this.pageSize = Integer.parseInt(Props.get("BLOB_L1_PAGE_SIZE", String.valueOf(64 * 1024)));
+		var size = Long.parseLong(Props.get("BLOB_L1_CACHE_SIZE", String.valueOf(64 * 1024 * 1024)));
+		// a direct buffer is indexed by int
+		var count = (int) Math.max(0, Math.min(size, Integer.MAX_VALUE) / pageSize);
+		this.capacity = (long) count * pageSize;
+		this.ttl = Long.parseLong(Props.get("BLOB_L1_TTL", "60")) * 1000;
+		// a single blob must not be able to flush most of the cache
+		this.maxEntrySize = capacity / 8;
+		this.pages = count > 0 ? ByteBuffer.allocateDirect(count * pageSize) : null;
+		this.freePages = new int[count];
+		for (int i = 0; i < count; i++)
+			freePages[free++] = count - 1 - i;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * The size of the largest blob the cache takes in.
+	 */
+	public long maxEntrySize() {
+		return maxEntrySize;
+	}
+
+	/**
+	 * Returns a stream over up to length cached bytes of a blob, starting at offset,
+	 * or null if the blob is not cached. The stream must be closed once read.
+	 */
+	public InputStream get(String key, long offset, long length) {
+		var entry = lookup(key);
+		if (entry == null)
+			return null;
+
+		int start = (int) Math.min(offset, entry.length);
+		int end = (int) Math.min(entry.length, start + Math.min(length, Integer.MAX_VALUE));
+		return new EntryInputStream(entry, start, end);
+	}
+
+	public InputStream get(String key) {
+		return get(key, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Caches the contents of a blob, evicting the least recently used ones to make room.
+	 * Contents are not cached if there is no room left for them.
+	 */
+	public void put(String key, byte[] bytes) {
+		if (capacity <= 0 || bytes.length > maxEntrySize)
+			return;
+
+		var taken = take((bytes.length + pageSize - 1) / pageSize);
+		if (taken == null)
+			return;
+
+		for (int i = 0, off = 0; i < taken.length; i++, off += pageSize)
+			pages.put(taken[i] * pageSize, bytes, off, Math.min(pageSize, bytes.length - off));
+
+		var entry = new Entry(taken, bytes.length, System.currentTimeMillis() + ttl);
+		synchronized (this) {
+			var old = entries.put(key, entry);
+			if (old != null)
+				drop(old);
+		}
+	}
+
+	synchronized public void remove(String key) {
+		var old = entries.remove(key);
+		if (old != null)
+			drop(old);
+	}
+
+	/**
+	 * Hit, miss and eviction counters and the current occupancy of the cache.
+	 */
+	synchronized public String stats() {
+		long h = hits.get(), m = misses.get();
+		return String.format("entries: %d, bytes: %d/%d, hits: %d, misses: %d, hit ratio: %.3f, evictions: %d",
+				entries.size(), used, capacity, h, m, h + m == 0 ? 0.0 : (double) h / (h + m), evictions.get());
+	}
+
+	private Entry lookup(String key) {
+		synchronized (this) {
+			var entry = entries.get(key);
+			if (entry != null && entry.expires < System.currentTimeMillis()) {
+				entries.remove(key);
+				drop(entry);
+				entry = null;
+			}
+			if (entry != null) {
+				entry.readers++;
+				hits.incrementAndGet();
+				return entry;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Takes count free pages, evicting entries until there are enough, or returns null if
+	 * the pages of entries still being read leave too few.
+	 */
+	synchronized private int[] take(int count) {
+		var it = entries.values().iterator();
+		while (free < count && it.hasNext()) {
+			drop(it.next());
+			it.remove();
+			evictions.incrementAndGet();
+		}
+		if (free < count)
+			return null;
+
+		var taken = new int[count];
+		for (int i = 0; i < count; i++)
+			taken[i] = freePages[--free];
+		used += (long) count * pageSize;
+		return taken;
+	}
+
+	// Must be called with the entry removed from the map
+	private void drop(Entry entry) {
+		entry.dropped = true;
+		if (entry.readers == 0)
+			recycle(entry);
+	}
+
+	synchronized private void release(Entry entry) {
+		if (--entry.readers == 0 && entry.dropped)
+			recycle(entry);
+	}
+
+	private void recycle(Entry entry) {
+		for (var page : entry.pages)
+			freePages[free++] = page;
+		used -= (long) entry.pages.length * pageSize;
+	}
+
+	/**
+	 * Reads the pages of an entry in place, with absolute gets, so that readers need no
+	 * position of their own in the shared buffer.
+	 */
+	class EntryInputStream extends InputStream {
+		private final Entry entry;
+		private final int end;
+		private int pos;
+		private boolean closed;
+
+		EntryInputStream(Entry entry, int start, int end) {
+			this.entry = entry;
+			this.pos = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read() {
+			if (pos >= end)
+				return -1;
+			return pages.get(offsetOf(pos++)) & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (pos >= end)
+				return -1;
+
+			int n = Math.min(Math.min(len, end - pos), pageSize - pos % pageSize);
+			pages.get(offsetOf(pos), b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, end - pos));
+			pos += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return end - pos;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release(entry);
+			}
+		}
+
+		private int offsetOf(int pos) {
+			return entry.pages[pos / pageSize] * pageSize + pos % pageSize;
+		}
+	}
+}
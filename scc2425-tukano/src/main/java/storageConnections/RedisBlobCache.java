@@ -0,0 +1,166 @@
+package storageConnections;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import utils.Props;
+
+/**
+ * Cache of blob contents in Redis, stored as raw bytes through the binary Jedis commands.
+ *
+ * A blob is kept as a list of chunks of BLOB_CACHE_CHUNK_SIZE bytes, so a range of it can be
+ * fetched without transferring the rest. Only blobs up to BLOB_CACHE_MAX_SIZE bytes are
+ * admitted, and only once they were accessed BLOB_CACHE_ADMIT_AFTER times within
+ * BLOB_CACHE_ADMIT_WINDOW seconds, so blobs seen once never take space. Entries expire after
+ * BLOB_CACHE_TTL seconds.
+ */
+public class RedisBlobCache {
+	private static final Logger Log = Logger.getLogger(RedisBlobCache.class.getName());
+
+	private static final String BYTES_CACHE_PREFIX = "bytes:";
+	private static final String FREQUENCY_PREFIX = "bytesfreq:";
+
+	private final int maxSize;
+	private final int chunkSize;
+	private final long ttl;
+	private final long admitAfter;
+	private final long admitWindow;
+	private final String keyPrefix;
+
+	public RedisBlobCache() {
+		this.maxSize = Integer.parseInt(Props.get("BLOB_CACHE_MAX_SIZE", String.valueOf(1024 * 1024)));
+		this.chunkSize = Integer.parseInt(Props.get("BLOB_CACHE_CHUNK_SIZE", String.valueOf(256 * 1024)));
+		this.ttl = Long.parseLong(Props.get("BLOB_CACHE_TTL", "3600"));
+		this.admitAfter = Long.parseLong(Props.get("BLOB_CACHE_ADMIT_AFTER", "2"));
+		this.admitWindow = Long.parseLong(Props.get("BLOB_CACHE_ADMIT_WINDOW", "600"));
+		// Chunk positions depend on the chunk size, so entries written with another one are never read back
+		this.keyPrefix = BYTES_CACHE_PREFIX + chunkSize + ":";
+	}
+
+	public int maxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Records an access to a blob and tells if its contents should now be cached.
+	 */
+	public boolean admit(String key) {
+		if (admitAfter <= 1)
+			return true;
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			var count = pipeline.incr(FREQUENCY_PREFIX + key);
+			pipeline.expire(FREQUENCY_PREFIX + key, admitWindow);
+			pipeline.sync();
+			return count.get() >= admitAfter;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to count blob accesses: " + e.getMessage());
+			return false;
+		}
+	}
+
+	public void put(String key, byte[] bytes) {
+		if (bytes.length > maxSize)
+			return;
+
+		var k = bytesKey(key);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var tx = jedis.multi();
+			tx.del(k);
+			tx.rpush(k, chunksOf(bytes));
+			tx.expire(k, ttl);
+			tx.exec();
+		} catch (JedisException e) {
+			Log.warning("Failed to cache the bytes in Redis: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the cached contents of a blob, or null if they are not cached.
+	 */
+	public byte[] get(String key) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var chunks = jedis.lrange(bytesKey(key), 0, -1);
+			return chunks.isEmpty() ? null : concat(chunks, 0, Integer.MAX_VALUE);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to retrieve cached bytes: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns up to length cached bytes of a blob, starting at offset, fetching only the chunks
+	 * that hold them. Returns null if they are not cached.
+	 */
+	public byte[] get(String key, long offset, long length) {
+		if (length == 0 || offset >= maxSize)
+			return null;
+
+		long first = offset / chunkSize;
+		long last = (Math.min(offset + length, maxSize) - 1) / chunkSize;
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var chunks = jedis.lrange(bytesKey(key), first, last);
+			return chunks.isEmpty() ? null : concat(chunks, (int) (offset - first * chunkSize), (int) Math.min(length, maxSize));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to retrieve cached bytes: " + e.getMessage());
+			return null;
+		}
+	}
+
+	public void remove(String key) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.del(bytesKey(key), (FREQUENCY_PREFIX + key).getBytes(StandardCharsets.UTF_8));
+		} catch (JedisException e) {
+			Log.warning("Failed to remove cached bytes from Redis: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes many blobs at once, in a single pipelined round trip.
+	 */
+	public void removeAll(Collection<String> keys) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			for (var key : keys)
+				pipeline.del(bytesKey(key), (FREQUENCY_PREFIX + key).getBytes(StandardCharsets.UTF_8));
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Failed to remove cached bytes from Redis: " + e.getMessage());
+		}
+	}
+
+	private byte[] bytesKey(String key) {
+		return (keyPrefix + key).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private byte[][] chunksOf(byte[] bytes) {
+		if (bytes.length <= chunkSize)
+			return new byte[][] { bytes };
+
+		var chunks = new byte[(bytes.length + chunkSize - 1) / chunkSize][];
+		for (int i = 0; i < chunks.length; i++)
+			chunks[i] = Arrays.copyOfRange(bytes, i * chunkSize, Math.min(bytes.length, (i + 1) * chunkSize));
+		return chunks;
+	}
+
+	private static byte[] concat(List<byte[]> chunks, int skip, int length) {
+		if (chunks.size() == 1 && skip == 0 && chunks.get(0).length <= length)
+			return chunks.get(0);
+
+		var out = new ByteArrayOutputStream();
+		for (var chunk : chunks) {
+			int n = Math.min(chunk.length - skip, length - out.size());
+			if (n > 0)
+				out.write(chunk, skip, n);
+			skip = Math.max(0, skip - chunk.length);
+		}
+		return out.toByteArray();
+	}
+}
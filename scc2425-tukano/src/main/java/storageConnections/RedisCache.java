@@ -1,5 +1,8 @@
 package storageConnections;
 
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
@@ -28,4 +31,18 @@ public class RedisCache {
         instance = new JedisPool(poolConfig, REDIS_HOSTNAME, REDIS_PORT, REDIS_TIMEOUT, REDIS_KEY, Redis_USE_TLS);
         return instance;
     }
+
+    /**
+     * Opens a connection of its own, outside the pool, that waits up to soTimeout milliseconds
+     * for a reply, eg. for a subscription that stays idle for long. The caller closes it.
+     */
+    public static Jedis newConnection(int soTimeout) {
+        var config = DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis(REDIS_TIMEOUT)
+                .socketTimeoutMillis(soTimeout)
+                .password(REDIS_KEY)
+                .ssl(Redis_USE_TLS)
+                .build();
+        return new Jedis(new HostAndPort(REDIS_HOSTNAME, REDIS_PORT), config);
+    }
 }
\ No newline at end of file
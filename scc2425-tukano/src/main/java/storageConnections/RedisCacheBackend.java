@@ -0,0 +1,144 @@
+package storageConnections;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Cache entries in Redis, shared by every instance.
+ *
+ * The generation of a scope is kept in a counter (cache_gen:{scope}), and the version of a
+ * scoped key in another (cache_ver:{key}), both read together with the key in a single script,
+ * so scoped keys cost one round trip like any other.
+ */
+public class RedisCacheBackend implements CacheBackend {
+	private static final Logger Log = Logger.getLogger(RedisCacheBackend.class.getName());
+
+	private static final String GENERATION_PREFIX = "cache_gen:";
+	private static final String VERSION_PREFIX = "cache_ver:";
+	private static final long VERSION_TTL = 3600;
+
+	// Reads key ARGV[1] in the current generation and version; returns the tagged key and its value, if any
+	private static final String GET_SCRIPT = """
+			local key = ARGV[1] .. '#' .. (redis.call('get', KEYS[1]) or '0') .. '.' .. (redis.call('get', KEYS[2]) or '0')
+			return { key, redis.call('get', key) }""";
+
+	// Deletes key ARGV[1] in the current generation and version, and bumps the version,
+	// which lives for at least ARGV[2] seconds
+	private static final String DEL_SCRIPT = """
+			local key = ARGV[1] .. '#' .. (redis.call('get', KEYS[1]) or '0') .. '.' .. (redis.call('get', KEYS[2]) or '0')
+			redis.call('incr', KEYS[2])
+			if redis.call('ttl', KEYS[2]) < tonumber(ARGV[2]) then
+				redis.call('expire', KEYS[2], ARGV[2])
+			end
+			return redis.call('unlink', key)""";
+
+	// Caches tagged key KEYS[1] for ARGV[2] seconds, keeping its version KEYS[2], if any, for at least as long
+	private static final String FILL_SCRIPT = """
+			redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2])
+			local ttl = redis.call('ttl', KEYS[2])
+			if ttl >= 0 and ttl < tonumber(ARGV[2]) then
+				redis.call('expire', KEYS[2], ARGV[2])
+			end
+			return 0""";
+
+	// Lowers the TTL of KEYS[1] to ARGV[1] seconds, if it has none or a longer one
+	private static final String EXPIRE_SCRIPT = """
+			local ttl = redis.call('ttl', KEYS[1])
+			if ttl == -1 or ttl > tonumber(ARGV[1]) then
+				return redis.call('expire', KEYS[1], ARGV[1])
+			end
+			return 0""";
+
+	@Override
+	public String get(String key) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			return jedis.get(key);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public void set(String key, String value, long ttl) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			if (ttl > 0)
+				jedis.setex(key, ttl, value);
+			else
+				jedis.set(key, value);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to cache " + key + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void delete(Collection<String> keys) {
+		if (keys.isEmpty())
+			return;
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			keys.forEach(pipeline::unlink);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to delete " + keys.size() + " keys: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void expire(String key, long ttl) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.eval(EXPIRE_SCRIPT, List.of(key), List.of(String.valueOf(ttl)));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to expire " + key + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Tagged get(String scope, String key) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var res = (List<String>) jedis.eval(GET_SCRIPT, List.of(GENERATION_PREFIX + scope, VERSION_PREFIX + key), List.of(key));
+			return new Tagged(res.get(0), res.size() > 1 ? res.get(1) : null);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public void fill(Tagged tagged, String value, long ttl) {
+		var keys = List.of(tagged.key(), VERSION_PREFIX + untagged(tagged.key()));
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.eval(FILL_SCRIPT, keys, List.of(value, String.valueOf(Math.max(1, ttl))));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to cache " + tagged.key() + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void delete(String scope, String key) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.eval(DEL_SCRIPT, List.of(GENERATION_PREFIX + scope, VERSION_PREFIX + key), List.of(key, String.valueOf(VERSION_TTL)));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to delete " + key + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void bump(String scope) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.incr(GENERATION_PREFIX + scope);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to invalidate cache of " + scope + ": " + e.getMessage());
+		}
+	}
+
+	private static String untagged(String tagged) {
+		return tagged.substring(0, tagged.lastIndexOf('#'));
+	}
+}
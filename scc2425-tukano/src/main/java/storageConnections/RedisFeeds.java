@@ -0,0 +1,621 @@
+package storageConnections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.Tuple;
+import tukano.api.Short;
+import tukano.impl.data.FeedCursor;
+import utils.Props;
+
+/**
+ * Precomputed feed timelines, kept in Redis sorted sets of short ids scored by timestamp.
+ *
+ * The feed of a user (feed:{userId}) holds the newest FEED_MAX_LENGTH shorts of the user and
+ * of the users they follow. It is patched as shorts are created and deleted and as users
+ * follow and unfollow each other, so reading it is a single range query. Each user also
+ * has an index of their own newest shorts (shorts_index:{userId}), merged into a feed when
+ * its owner is followed.
+ *
+ * A timeline is complete only while it holds the BUILT marker (scored below any timestamp).
+ * Timelines that are missing or have been evicted are rebuilt from the database when next
+ * needed, and updates to them are skipped in the meantime, so a partial timeline is never read.
+ * Once older shorts have been left out of a timeline, or trimmed from it, it also holds the
+ * TRUNCATED marker, which it keeps as shorts are removed, until it is rebuilt.
+ *
+ * Shorts of owners in the pulled set (feed_pulled) are not pushed to feeds, but read from the
+ * index of their owner along with the feed. To tell which of those a user follows, the
+ * followees of each user are kept in a set (followees:{userId}), complete only while it holds
+ * the BUILT marker too, and the number of followers of each owner in a counter
+ * (followers_count:{userId}) that is refreshed from the database every FEED_TTL seconds.
+ *
+ * First pages of feeds are cached (feed_page:{userId}) for FEED_PAGE_CACHE_TTL seconds, under
+ * a stamp made of the version of the feed (feed_version:{userId}) and the versions of the
+ * indexes of the pulled owners the user follows (index_version:{userId}). Every change to a
+ * feed, to an index or to the followees of a user bumps the version concerned, so a cached
+ * page is only served while nothing it was computed from has changed.
+ */
+public class RedisFeeds {
+	private static final Logger Log = Logger.getLogger(RedisFeeds.class.getName());
+
+	private static final String FEED_PREFIX = "feed:";
+	private static final String INDEX_PREFIX = "shorts_index:";
+	private static final String FOLLOWEES_PREFIX = "followees:";
+	private static final String FOLLOWERS_COUNT_PREFIX = "followers_count:";
+	private static final String PULLED = "feed_pulled";
+	private static final String VERSION_PREFIX = "feed_version:";
+	private static final String INDEX_VERSION_PREFIX = "index_version:";
+	private static final String PAGE_PREFIX = "feed_page:";
+	private static final String BUILT = "*";
+	private static final String TRUNCATED = "+";
+	private static final double BUILT_SCORE = -1;
+
+	// Adds a short to a timeline, if it is complete, keeping only the newest ARGV[4] shorts
+	// and marking it as truncated (ARGV[6], scored ARGV[5]) if older ones had to go
+	private static final String PUSH_SCRIPT = """
+			if redis.call('zscore', KEYS[1], ARGV[3]) then
+				redis.call('zadd', KEYS[1], ARGV[1], ARGV[2])
+				local markers = redis.call('zcount', KEYS[1], ARGV[5], ARGV[5])
+				if redis.call('zremrangebyrank', KEYS[1], markers, -(tonumber(ARGV[4]) + 1)) > 0 then
+					redis.call('zadd', KEYS[1], ARGV[5], ARGV[6])
+				end
+			end
+			return 0""";
+
+	// Merges the index of a followee into a feed, trimming it as PUSH_SCRIPT does; the feed
+	// takes the truncated marker of the index along. Returns -1 if the index must be built first
+	private static final String MERGE_SCRIPT = """
+			if not redis.call('zscore', KEYS[1], ARGV[1]) then
+				return 0
+			end
+			if not redis.call('zscore', KEYS[2], ARGV[1]) then
+				return -1
+			end
+			local ttl = redis.call('ttl', KEYS[1])
+			redis.call('zunionstore', KEYS[1], 2, KEYS[1], KEYS[2], 'AGGREGATE', 'MAX')
+			local markers = redis.call('zcount', KEYS[1], ARGV[3], ARGV[3])
+			if redis.call('zremrangebyrank', KEYS[1], markers, -(tonumber(ARGV[2]) + 1)) > 0 then
+				redis.call('zadd', KEYS[1], ARGV[3], ARGV[4])
+			end
+			if ttl > 0 then
+				redis.call('expire', KEYS[1], ttl)
+			end
+			return 1""";
+
+	// Adds a member to a set, if it is complete
+	private static final String SADD_SCRIPT = """
+			if redis.call('sismember', KEYS[1], ARGV[1]) == 1 then
+				redis.call('sadd', KEYS[1], ARGV[2])
+			end
+			return 0""";
+
+	// Adjusts a counter, if it is present; returns nil otherwise
+	private static final String INCR_SCRIPT = """
+			if redis.call('exists', KEYS[1]) == 1 then
+				return redis.call('incrby', KEYS[1], ARGV[1])
+			end
+			return false""";
+
+	// Returns the stamp of the feed of a user and the cached page stored in field ARGV[1], if any
+	private static final String PAGE_SCRIPT = """
+			local stamp = redis.call('get', KEYS[1]) or '0'
+			local owners = redis.call('sinter', KEYS[2], KEYS[3])
+			table.sort(owners)
+			for _, owner in ipairs(owners) do
+				stamp = stamp .. ',' .. owner .. '=' .. (redis.call('get', ARGV[2] .. owner) or '0')
+			end
+			return { redis.sha1hex(stamp), redis.call('hget', KEYS[4], ARGV[1]) or '' }""";
+
+	// Removes from a timeline every short of an owner, ie. whose id starts with ARGV[1]
+	private static final String REMOVE_OWNER_SCRIPT = """
+			local prefix = ARGV[1]
+			for _, id in ipairs(redis.call('zrange', KEYS[1], 0, -1)) do
+				if string.sub(id, 1, string.len(prefix)) == prefix then
+					redis.call('zrem', KEYS[1], id)
+				end
+			end
+			return 0""";
+
+	private final int maxLength;
+	private final long ttl;
+	private final long pageTtl;
+
+	public RedisFeeds() {
+		this.maxLength = Integer.parseInt(Props.get("FEED_MAX_LENGTH", "500"));
+		this.ttl = Long.parseLong(Props.get("FEED_TTL", String.valueOf(7 * 24 * 3600)));
+		this.pageTtl = Long.parseLong(Props.get("FEED_PAGE_CACHE_TTL", "60"));
+	}
+
+	public int maxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * A short in a timeline.
+	 */
+	public record Entry(String shortId, long timestamp) {
+
+		/**
+		 * Orders entries as in a feed: by timestamp and then by short id, both descending.
+		 */
+		public static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong(Entry::timestamp)
+				.thenComparing(Entry::shortId).reversed();
+
+		public Entry(Short shrt) {
+			this(shrt.getid(), shrt.getTimestamp());
+		}
+
+		public String ownerId() {
+			return shortId.substring(0, shortId.lastIndexOf(':'));
+		}
+
+		public boolean after(FeedCursor cursor) {
+			return cursor == null || cursor.precedes(timestamp, shortId);
+		}
+	}
+
+	/**
+	 * Part of a timeline, newest first. A truncated timeline may be missing older shorts,
+	 * that only the database has.
+	 */
+	public record Slice(List<Entry> entries, boolean truncated) {
+	}
+
+	/**
+	 * A slice of the feed of a user, and the pulled owners the user follows, or null
+	 * if the followees of the user have to be rebuilt before they can be known.
+	 */
+	public record Timeline(Slice feed, Set<String> pulled) {
+	}
+
+	/**
+	 * Returns up to count shorts of the feed of a user, that come after a cursor (if not null)
+	 * and are newer than since, or null if the feed has to be rebuilt.
+	 * Reading a feed extends its lifetime.
+	 */
+	public Timeline feed(String userId, FeedCursor after, long since, int count) {
+		var key = FEED_PREFIX + userId;
+		var followees = FOLLOWEES_PREFIX + userId;
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			Response<Double> built = pipeline.zscore(key, BUILT);
+			var slice = slice(pipeline, key, after, since, count);
+			Response<Boolean> followeesBuilt = pipeline.sismember(followees, BUILT);
+			Response<Set<String>> pulled = pipeline.sinter(followees, PULLED);
+			pipeline.expire(key, ttl);
+			pipeline.expire(followees, ttl);
+			pipeline.sync();
+			if (built.get() == null)
+				return null;
+			return new Timeline(slice.get(), followeesBuilt.get() ? pulled.get() : null);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read feed of " + userId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the pulled owners a user follows, or null if the followees of the user
+	 * have to be rebuilt.
+	 */
+	public Set<String> pulledFollowees(String userId) {
+		var followees = FOLLOWEES_PREFIX + userId;
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			Response<Boolean> built = pipeline.sismember(followees, BUILT);
+			Response<Set<String>> pulled = pipeline.sinter(followees, PULLED);
+			pipeline.sync();
+			return built.get() ? pulled.get() : null;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read followees of " + userId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns slices of the indexes of the given owners, as feed() does. Owners whose
+	 * index has to be rebuilt are left out.
+	 */
+	public Map<String, Slice> indexes(Collection<String> ownerIds, FeedCursor after, long since, int count) {
+		var res = new HashMap<String, Slice>();
+		if (ownerIds.isEmpty())
+			return res;
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			var built = new HashMap<String, Response<Double>>();
+			var slices = new HashMap<String, Supplier<Slice>>();
+			for (var ownerId : ownerIds) {
+				built.put(ownerId, pipeline.zscore(INDEX_PREFIX + ownerId, BUILT));
+				slices.put(ownerId, slice(pipeline, INDEX_PREFIX + ownerId, after, since, count));
+			}
+			pipeline.sync();
+			for (var ownerId : ownerIds)
+				if (built.get(ownerId).get() != null)
+					res.put(ownerId, slices.get(ownerId).get());
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read shorts indexes: " + e.getMessage());
+		}
+		return res;
+	}
+
+	/**
+	 * Slices a list of shorts of a timeline, newest first, as feed() does.
+	 */
+	public Slice slice(List<Short> shorts, FeedCursor after, long since, int count) {
+		var entries = new ArrayList<Entry>();
+		for (var shrt : shorts) {
+			var entry = new Entry(shrt);
+			if (entry.timestamp() <= since || entries.size() == count)
+				break;
+			if (entry.after(after))
+				entries.add(entry);
+		}
+		return new Slice(entries, shorts.size() >= maxLength);
+	}
+
+	/**
+	 * The current stamp of a feed, and a page cached from it, or null if there is none.
+	 */
+	public record CachedPage(String stamp, String page) {
+	}
+
+	/**
+	 * Returns the current stamp of the feed of a user, along with the page cached under
+	 * the given name, if it was stored under that same stamp.
+	 */
+	public CachedPage cachedPage(String userId, String name) {
+		var keys = List.of(VERSION_PREFIX + userId, FOLLOWEES_PREFIX + userId, PULLED, PAGE_PREFIX + userId);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			@SuppressWarnings("unchecked")
+			var res = (List<String>) jedis.eval(PAGE_SCRIPT, keys, List.of(name, INDEX_VERSION_PREFIX));
+			var stamp = res.get(0);
+			var cached = res.get(1);
+			return new CachedPage(stamp, cached.startsWith(stamp + "\n") ? cached.substring(stamp.length() + 1) : null);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read cached feed of " + userId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Caches a page of the feed of a user under a name, along with the stamp of the feed
+	 * it was computed from.
+	 */
+	public void cachePage(String userId, String name, String stamp, String page) {
+		var key = PAGE_PREFIX + userId;
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.hset(key, name, stamp + "\n" + page);
+			pipeline.expire(key, pageTtl);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to cache feed of " + userId + ": " + e.getMessage());
+		}
+	}
+
+	public void rebuildFeed(String userId, List<Short> shorts) {
+		rebuild(FEED_PREFIX + userId, shorts, ttl);
+	}
+
+	public void rebuildIndex(String ownerId, List<Short> shorts) {
+		rebuild(INDEX_PREFIX + ownerId, shorts, 0);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.incr(INDEX_VERSION_PREFIX + ownerId);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to bump index version of " + ownerId + ": " + e.getMessage());
+		}
+	}
+
+	public void rebuildFollowees(String userId, Collection<String> followees) {
+		var key = FOLLOWEES_PREFIX + userId;
+		var members = new ArrayList<>(followees);
+		members.add(BUILT);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var tx = jedis.multi();
+			tx.del(key);
+			tx.sadd(key, members.toArray(String[]::new));
+			tx.expire(key, ttl);
+			tx.exec();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to rebuild " + key + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the number of followers of an owner, or null if it has to be counted again.
+	 */
+	public Long followerCount(String ownerId) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var count = jedis.get(FOLLOWERS_COUNT_PREFIX + ownerId);
+			return count != null ? Long.parseLong(count) : null;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read follower count of " + ownerId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public void setFollowerCount(String ownerId, long count) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.set(FOLLOWERS_COUNT_PREFIX + ownerId, String.valueOf(count), new SetParams().ex(ttl));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to store follower count of " + ownerId + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Adjusts the number of followers of an owner, returning the new count, or null if
+	 * it has to be counted again.
+	 */
+	public Long adjustFollowerCount(String ownerId, long delta) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			return (Long) jedis.eval(INCR_SCRIPT, List.of(FOLLOWERS_COUNT_PREFIX + ownerId), List.of(String.valueOf(delta)));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to adjust follower count of " + ownerId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public boolean isPulled(String ownerId) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			return jedis.sismember(PULLED, ownerId);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read pulled owners: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Adds an owner to, or removes it from, the pulled owners.
+	 *
+	 * @return true, if that changed the set
+	 */
+	public boolean setPulled(String ownerId, boolean pulled) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			return (pulled ? jedis.sadd(PULLED, ownerId) : jedis.srem(PULLED, ownerId)) > 0;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to update pulled owners: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Pushes a new short to the index of its owner and to the feeds of the given users.
+	 */
+	public void push(Short shrt, Collection<String> userIds) {
+		var args = List.of(String.valueOf(shrt.getTimestamp()), shrt.getid(), BUILT, String.valueOf(maxLength),
+				String.valueOf(BUILT_SCORE), TRUNCATED);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.eval(PUSH_SCRIPT, List.of(INDEX_PREFIX + shrt.getOwnerId()), args);
+			pipeline.incr(INDEX_VERSION_PREFIX + shrt.getOwnerId());
+			for (var userId : userIds)
+				pipeline.eval(PUSH_SCRIPT, List.of(FEED_PREFIX + userId), args);
+			bump(pipeline, userIds);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to push short " + shrt.getid() + ": " + e.getMessage());
+			invalidate(userIds);
+		}
+	}
+
+	/**
+	 * Removes a deleted short from the index of its owner and from the feeds of the given users.
+	 */
+	public void remove(Short shrt, Collection<String> userIds) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.zrem(INDEX_PREFIX + shrt.getOwnerId(), shrt.getid());
+			pipeline.incr(INDEX_VERSION_PREFIX + shrt.getOwnerId());
+			for (var userId : userIds)
+				pipeline.zrem(FEED_PREFIX + userId, shrt.getid());
+			bump(pipeline, userIds);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to remove short " + shrt.getid() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Merges the shorts of a followee into the feed of a follower.
+	 *
+	 * @return false, if the index of the followee must be rebuilt before retrying
+	 */
+	public boolean follow(String follower, String followee) {
+		addFollowee(follower, followee);
+		return merge(follower, followee);
+	}
+
+	/**
+	 * Records that a user follows a pulled owner, whose shorts are not merged into the feed.
+	 */
+	public void addFollowee(String follower, String followee) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.eval(SADD_SCRIPT, List.of(FOLLOWEES_PREFIX + follower), List.of(BUILT, followee));
+			bump(pipeline, List.of(follower));
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to update followees of " + follower + ": " + e.getMessage());
+			invalidate(List.of(follower));
+		}
+	}
+
+	/**
+	 * Merges the shorts of an owner into the feeds of the given users, eg. when the
+	 * owner is no longer pulled. Shorts of the owner already in those feeds are replaced.
+	 *
+	 * @return false, if the index of the owner must be rebuilt before retrying
+	 */
+	public boolean backfill(String ownerId, Collection<String> userIds) {
+		removeOwner(ownerId, userIds);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			var results = new ArrayList<Response<Object>>();
+			for (var userId : userIds)
+				results.add(pipeline.eval(MERGE_SCRIPT, List.of(FEED_PREFIX + userId, INDEX_PREFIX + ownerId), mergeArgs()));
+			bump(pipeline, userIds);
+			pipeline.sync();
+			return results.stream().allMatch(res -> ((Long) res.get()) >= 0);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to merge shorts of " + ownerId + ": " + e.getMessage());
+			invalidate(userIds);
+			return true;
+		}
+	}
+
+	private boolean merge(String follower, String followee) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			var res = pipeline.eval(MERGE_SCRIPT, List.of(FEED_PREFIX + follower, INDEX_PREFIX + followee), mergeArgs());
+			bump(pipeline, List.of(follower));
+			pipeline.sync();
+			return ((Long) res.get()) >= 0;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to merge feed of " + follower + ": " + e.getMessage());
+			invalidate(List.of(follower));
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the shorts of an owner from the feeds of the given users, eg. when
+	 * they stop following the owner or the owner is removed.
+	 */
+	public void removeOwner(String ownerId, Collection<String> userIds) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			for (var userId : userIds)
+				pipeline.eval(REMOVE_OWNER_SCRIPT, List.of(FEED_PREFIX + userId), List.of(ownerId + ":"));
+			bump(pipeline, userIds);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to remove shorts of " + ownerId + ": " + e.getMessage());
+			invalidate(userIds);
+		}
+	}
+
+	/**
+	 * Records that the given users no longer follow an owner.
+	 */
+	public void removeFollowee(String ownerId, Collection<String> userIds) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			for (var userId : userIds)
+				pipeline.srem(FOLLOWEES_PREFIX + userId, ownerId);
+			bump(pipeline, userIds);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to update followees: " + e.getMessage());
+			invalidate(userIds);
+		}
+	}
+
+	/**
+	 * Drops all that is kept about a user.
+	 */
+	public void drop(String userId) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.del(FEED_PREFIX + userId, INDEX_PREFIX + userId, FOLLOWEES_PREFIX + userId, FOLLOWERS_COUNT_PREFIX + userId,
+					VERSION_PREFIX + userId, INDEX_VERSION_PREFIX + userId, PAGE_PREFIX + userId);
+			pipeline.srem(PULLED, userId);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to drop feed of " + userId + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Drops feeds, and the followees of their users, so they are rebuilt when next read.
+	 */
+	public void invalidate(Collection<String> userIds) {
+		if (userIds.isEmpty())
+			return;
+
+		var keys = new ArrayList<String>();
+		for (var userId : userIds) {
+			keys.add(FEED_PREFIX + userId);
+			keys.add(FOLLOWEES_PREFIX + userId);
+		}
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.del(keys.toArray(String[]::new));
+			bump(pipeline, userIds);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to invalidate feeds: " + e.getMessage());
+		}
+	}
+
+	private List<String> mergeArgs() {
+		return List.of(BUILT, String.valueOf(maxLength), String.valueOf(BUILT_SCORE), TRUNCATED);
+	}
+
+	// The database is read up to FEED_MAX_LENGTH shorts, so a timeline that long may be missing older ones
+	private void rebuild(String key, List<Short> shorts, long ttl) {
+		var members = new HashMap<String, Double>();
+		for (var shrt : shorts.subList(0, Math.min(shorts.size(), maxLength)))
+			members.put(shrt.getid(), (double) shrt.getTimestamp());
+		members.put(BUILT, BUILT_SCORE);
+		if (shorts.size() >= maxLength)
+			members.put(TRUNCATED, BUILT_SCORE);
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var tx = jedis.multi();
+			tx.del(key);
+			tx.zadd(key, members);
+			if (ttl > 0)
+				tx.expire(key, ttl);
+			tx.exec();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to rebuild " + key + ": " + e.getMessage());
+		}
+	}
+
+	// Bumps the versions of feeds, so pages cached from them are no longer served
+	private static void bump(Pipeline pipeline, Collection<String> userIds) {
+		for (var userId : userIds)
+			pipeline.incr(VERSION_PREFIX + userId);
+	}
+
+	/**
+	 * Queues the reads of a slice of a timeline. Shorts with the same timestamp as the cursor
+	 * are read apart, as the scores alone cannot tell which of them come after it.
+	 */
+	private Supplier<Slice> slice(Pipeline pipeline, String key, FeedCursor after, long since, int count) {
+		var min = "(" + Math.max(since, 0);
+		var max = after == null ? "+inf" : "(" + after.timestamp();
+		Response<List<Tuple>> ties = after == null ? null : pipeline.zrevrangeByScoreWithScores(key, after.timestamp(), after.timestamp());
+		Response<List<Tuple>> older = pipeline.zrevrangeByScoreWithScores(key, max, min, 0, count);
+		Response<Double> truncated = pipeline.zscore(key, TRUNCATED);
+		return () -> {
+			var entries = new ArrayList<Entry>();
+			if (ties != null && after.timestamp() > since)
+				for (var entry : entriesOf(ties.get()))
+					if (entry.after(after))
+						entries.add(entry);
+			entries.addAll(entriesOf(older.get()));
+			return new Slice(entries.subList(0, Math.min(entries.size(), count)), truncated.get() != null);
+		};
+	}
+
+	private static List<Entry> entriesOf(List<Tuple> tuples) {
+		var entries = new ArrayList<Entry>(tuples.size());
+		for (var tuple : tuples)
+			entries.add(new Entry(tuple.getElement(), (long) tuple.getScore()));
+		return entries;
+	}
+}
@@ -0,0 +1,321 @@
+package storageConnections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import utils.Props;
+
+/**
+ * Likes taken in by Redis and written behind to the database.
+ *
+ * The users who like a short are kept in a set (likes:{shortId}) and their number in a counter
+ * (like_count:{shortId}), both complete only while the set holds the BUILT marker. Likes and
+ * unlikes change them right away, so reading either one never waits for the database.
+ *
+ * Each like or unlike not yet written to the database is kept as a pending event, in a hash
+ * of the users of a short to whether they like it (likes_pending:{shortId}), and the short is
+ * added to the dirty set (likes_dirty). Since a like or unlike is only taken if it changes
+ * the set, an event already pending for the same user is always the opposite one, and both
+ * cancel out. Flushing a short moves its pending events aside (likes_flushing:{shortId}), so
+ * that events taken while they are written to the database are left for the next flush.
+ *
+ * A flush that stalls is taken over by the next one, which writes the same events again. Each
+ * flush leaves its own token (likes_flush_token:{shortId}), and only the last one to begin may
+ * drop the events it wrote, so a stalled flush never drops the events of a later one.
+ */
+public class RedisLikes {
+	private static final Logger Log = Logger.getLogger(RedisLikes.class.getName());
+
+	private static final String LIKES_PREFIX = "likes:";
+	private static final String COUNT_PREFIX = "like_count:";
+	private static final String PENDING_PREFIX = "likes_pending:";
+	private static final String FLUSHING_PREFIX = "likes_flushing:";
+	private static final String FLUSH_TOKEN_PREFIX = "likes_flush_token:";
+	private static final String DIRTY = "likes_dirty";
+	private static final String BUILT = "*";
+	private static final String LIKED = "1";
+	private static final String UNLIKED = "0";
+
+	// Likes (ARGV[3] = 1), unlikes (ARGV[3] = 0) or only reads (ARGV[3] empty) a short; returns
+	// { built, changed, liked, count } as 0s and 1s but for the count
+	private static final String TOGGLE_SCRIPT = """
+			if redis.call('sismember', KEYS[1], ARGV[1]) == 0 then
+				return { 0, 0, 0, 0 }
+			end
+			local liked = redis.call('sismember', KEYS[1], ARGV[2]) == 1
+			local count = redis.call('get', KEYS[2])
+			if not count then
+				count = redis.call('scard', KEYS[1]) - 1
+				redis.call('set', KEYS[2], count, 'EX', ARGV[5])
+			end
+			count = tonumber(count)
+			if ARGV[3] == '' or liked == (ARGV[3] == '1') then
+				return { 1, 0, liked and 1 or 0, count }
+			end
+			if liked then
+				redis.call('srem', KEYS[1], ARGV[2])
+				count = redis.call('decr', KEYS[2])
+			else
+				redis.call('sadd', KEYS[1], ARGV[2])
+				count = redis.call('incr', KEYS[2])
+			end
+			if redis.call('hexists', KEYS[3], ARGV[2]) == 1 then
+				redis.call('hdel', KEYS[3], ARGV[2])
+			else
+				redis.call('hset', KEYS[3], ARGV[2], ARGV[3])
+			end
+			redis.call('sadd', KEYS[4], ARGV[4])
+			redis.call('expire', KEYS[1], ARGV[5])
+			redis.call('expire', KEYS[2], ARGV[5])
+			return { 1, 1, liked and 0 or 1, count }""";
+
+	// Builds the likes of a short from the users in ARGV[3..], who like it in the database,
+	// replaying the events not yet written there
+	private static final String BUILD_SCRIPT = """
+			redis.call('del', KEYS[1])
+			redis.call('sadd', KEYS[1], ARGV[1])
+			for i = 3, #ARGV do
+				redis.call('sadd', KEYS[1], ARGV[i])
+			end
+			for _, key in ipairs({ KEYS[4], KEYS[3] }) do
+				local events = redis.call('hgetall', key)
+				for i = 1, #events, 2 do
+					if events[i + 1] == '1' then
+						redis.call('sadd', KEYS[1], events[i])
+					else
+						redis.call('srem', KEYS[1], events[i])
+					end
+				end
+			end
+			redis.call('set', KEYS[2], redis.call('scard', KEYS[1]) - 1, 'EX', ARGV[2])
+			redis.call('expire', KEYS[1], ARGV[2])
+			return 0""";
+
+	// Returns the events of a short to write to the database, resuming a flush that did not finish,
+	// and takes the flush over with token ARGV[1]
+	private static final String BEGIN_FLUSH_SCRIPT = """
+			if redis.call('exists', KEYS[2]) == 0 and redis.call('exists', KEYS[1]) == 1 then
+				redis.call('rename', KEYS[1], KEYS[2])
+			end
+			redis.call('set', KEYS[3], ARGV[1])
+			return redis.call('hgetall', KEYS[2])""";
+
+	// Drops the events written to the database, and the short from the dirty set unless more are
+	// pending, if the flush with token ARGV[2] was not taken over; returns 0 if it was
+	private static final String END_FLUSH_SCRIPT = """
+			if redis.call('get', KEYS[4]) ~= ARGV[2] then
+				return 0
+			end
+			redis.call('del', KEYS[2], KEYS[4])
+			if redis.call('exists', KEYS[1]) == 0 then
+				redis.call('srem', KEYS[3], ARGV[1])
+			end
+			return 1""";
+
+	// Takes back the like of user ARGV[1], if any, and drops their pending events
+	private static final String PURGE_USER_SCRIPT = """
+			if redis.call('srem', KEYS[1], ARGV[1]) == 1 and redis.call('exists', KEYS[2]) == 1 then
+				redis.call('decr', KEYS[2])
+			end
+			redis.call('hdel', KEYS[3], ARGV[1])
+			redis.call('hdel', KEYS[4], ARGV[1])
+			return 0""";
+
+	private final long ttl;
+
+	/**
+	 * Whether a user likes a short and the number of likes of the short, after a like or unlike,
+	 * telling if that changed them.
+	 */
+	public record LikeState(boolean changed, boolean liked, long count) {
+	}
+
+	public static final LikeState NOT_BUILT = new LikeState(false, false, -1);
+
+	/**
+	 * The events of a short being written to the database, by the flush with the given token.
+	 */
+	public record Flush(String token, Map<String, Boolean> events) {
+	}
+
+	public RedisLikes() {
+		this.ttl = Long.parseLong(Props.get("LIKES_TTL", String.valueOf(24 * 3600)));
+	}
+
+	/**
+	 * Likes or unlikes a short, unless the user already likes (or does not like) it.
+	 *
+	 * @return the state of the like after that, or NOT_BUILT if the likes of the short must be
+	 *         built first, or null if Redis is unavailable
+	 */
+	public LikeState toggle(String shortId, String userId, boolean isLiked) {
+		return eval(shortId, userId, isLiked ? LIKED : UNLIKED);
+	}
+
+	/**
+	 * Returns whether a user likes a short, in the same way as toggle().
+	 */
+	public LikeState state(String shortId, String userId) {
+		return eval(shortId, userId, "");
+	}
+
+	@SuppressWarnings("unchecked")
+	private LikeState eval(String shortId, String userId, String op) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var keys = List.of(LIKES_PREFIX + shortId, COUNT_PREFIX + shortId, PENDING_PREFIX + shortId, DIRTY);
+			var args = List.of(BUILT, userId, op, shortId, String.valueOf(ttl));
+			var res = (List<Long>) jedis.eval(TOGGLE_SCRIPT, keys, args);
+			if (res.get(0) == 0)
+				return NOT_BUILT;
+			return new LikeState(res.get(1) == 1, res.get(2) == 1, res.get(3));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read or change like of " + shortId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Builds the likes of a short, given the users who like it in the database.
+	 */
+	public boolean build(String shortId, List<String> userIds) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var keys = List.of(LIKES_PREFIX + shortId, COUNT_PREFIX + shortId, PENDING_PREFIX + shortId, FLUSHING_PREFIX + shortId);
+			var args = new ArrayList<String>(userIds.size() + 2);
+			args.add(BUILT);
+			args.add(String.valueOf(ttl));
+			args.addAll(userIds);
+			jedis.eval(BUILD_SCRIPT, keys, args);
+			return true;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to build likes of " + shortId + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of likes of a short, or null if its likes are not built.
+	 */
+	public Long count(String shortId) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			var built = pipeline.sismember(LIKES_PREFIX + shortId, BUILT);
+			var count = pipeline.get(COUNT_PREFIX + shortId);
+			pipeline.sync();
+			return built.get() && count.get() != null ? Long.parseLong(count.get()) : null;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read like count of " + shortId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the users who like a short, or null if its likes are not built.
+	 */
+	public List<String> users(String shortId) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var members = jedis.smembers(LIKES_PREFIX + shortId);
+			if (!members.remove(BUILT))
+				return null;
+			return new ArrayList<>(members);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read likes of " + shortId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns up to count shorts with events to write to the database.
+	 */
+	public List<String> dirty(int count) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var shortIds = jedis.srandmember(DIRTY, count);
+			return shortIds != null ? shortIds : List.of();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to read shorts with pending likes: " + e.getMessage());
+			return List.of();
+		}
+	}
+
+	/**
+	 * Starts writing the events of a short to the database, returning whether each user
+	 * involved likes it, or null if Redis is unavailable.
+	 */
+	@SuppressWarnings("unchecked")
+	public Flush beginFlush(String shortId) {
+		var token = UUID.randomUUID().toString();
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var keys = List.of(PENDING_PREFIX + shortId, FLUSHING_PREFIX + shortId, FLUSH_TOKEN_PREFIX + shortId);
+			var res = (List<String>) jedis.eval(BEGIN_FLUSH_SCRIPT, keys, List.of(token));
+			var events = new HashMap<String, Boolean>();
+			for (int i = 0; i + 1 < res.size(); i += 2)
+				events.put(res.get(i), LIKED.equals(res.get(i + 1)));
+			return new Flush(token, events);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to flush likes of " + shortId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Finishes writing the events of a short to the database.
+	 *
+	 * @return false, if the flush was taken over by another one, that will finish it instead
+	 */
+	public boolean endFlush(String shortId, Flush flush) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var keys = List.of(PENDING_PREFIX + shortId, FLUSHING_PREFIX + shortId, DIRTY, FLUSH_TOKEN_PREFIX + shortId);
+			return (Long) jedis.eval(END_FLUSH_SCRIPT, keys, List.of(shortId, flush.token())) == 1;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to finish flushing likes of " + shortId + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Drops what is kept about a deleted user: their likes of the given shorts, their events not
+	 * yet written to the database and the likes of their own shorts with such events.
+	 */
+	public void purgeUser(String userId, Collection<String> likedShortIds) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var shortIds = new HashSet<>(likedShortIds);
+			shortIds.addAll(jedis.smembers(DIRTY));
+
+			var pipeline = jedis.pipelined();
+			for (var shortId : shortIds)
+				if (shortId.startsWith(userId + ":")) {
+					pipeline.del(LIKES_PREFIX + shortId, COUNT_PREFIX + shortId, PENDING_PREFIX + shortId, FLUSHING_PREFIX + shortId,
+							FLUSH_TOKEN_PREFIX + shortId);
+					pipeline.srem(DIRTY, shortId);
+				} else {
+					var keys = List.of(LIKES_PREFIX + shortId, COUNT_PREFIX + shortId, PENDING_PREFIX + shortId, FLUSHING_PREFIX + shortId);
+					pipeline.eval(PURGE_USER_SCRIPT, keys, List.of(userId));
+				}
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to drop likes of " + userId + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Drops the likes of a deleted short, including the events not yet written to the database.
+	 */
+	public void drop(String shortId) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var pipeline = jedis.pipelined();
+			pipeline.del(LIKES_PREFIX + shortId, COUNT_PREFIX + shortId, PENDING_PREFIX + shortId, FLUSHING_PREFIX + shortId,
+					FLUSH_TOKEN_PREFIX + shortId);
+			pipeline.srem(DIRTY, shortId);
+			pipeline.sync();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to drop likes of " + shortId + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package storageConnections;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import utils.JSON;
+
+/**
+ * How the values of a cache family are written to, and read back from, their cache entries.
+ */
+public interface Serializer<V> {
+
+	String encode(V value);
+
+	/**
+	 * Returns the value of an entry, or null if it cannot be read.
+	 */
+	V decode(String data);
+
+	static <V> Serializer<V> json(Class<V> type) {
+		return new Serializer<>() {
+			@Override
+			public String encode(V value) {
+				return JSON.encode(value);
+			}
+
+			@Override
+			public V decode(String data) {
+				return JSON.decode(data, type);
+			}
+		};
+	}
+
+	static <V> Serializer<V> json(TypeReference<V> type) {
+		return new Serializer<>() {
+			@Override
+			public String encode(V value) {
+				return JSON.encode(value);
+			}
+
+			@Override
+			public V decode(String data) {
+				return JSON.decode(data, type);
+			}
+		};
+	}
+}
@@ -2,26 +2,31 @@ package storageConnections;
 
 import com.azure.cosmos.*;
 import com.azure.cosmos.models.CosmosItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
 import com.azure.cosmos.util.CosmosPagedIterable;
-import com.fasterxml.jackson.core.type.TypeReference;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.exceptions.JedisException;
 import tukano.api.*;
 import tukano.api.Short;
 import tukano.impl.JavaBlobs;
 import tukano.impl.Token;
+import tukano.impl.data.FeedCursor;
 import tukano.impl.data.Following;
 import tukano.impl.data.Likes;
-import utils.JSON;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import utils.MergeIterator;
+import utils.Props;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Iterator;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 import static tukano.api.Result.ErrorCode.*;
@@ -31,13 +36,23 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
 
     private static final Logger Log = Logger.getLogger(ShortsCosmosDBNoSQLRepository.class.getName());
     private final CosmosContainer container;
-    private static final String SHORT_CACHE_PREFIX = "short:";
-    private static final String GETSHORTS_CACHE_PREFIX = "shorts_user:";
-    private static final String FOLLOWERS_CACHE_PREFIX = "followers_user:";
-    private static final String LIKES_CACHE_PREFIX = "likes_short:";
+    private final CosmosAsyncContainer asyncContainer;
+    private final int fanInConcurrency;
+    private final CosmosLikeCounters counters;
+    private final CacheFamily<Short> cachedShorts;
+    private final CacheFamily<List<String>> cachedShortIds = Caches.shortsOfUser();
+    private final CacheFamily<List<String>> cachedFollowers = Caches.followersOfUser();
+    private final CacheFamily<List<String>> cachedLikes = Caches.likesOfShort();
+    private static final Comparator<Short> FEED_ORDER = Comparator.comparingLong(Short::getTimestamp)
+            .thenComparing(Short::getid).reversed();
 
     public ShortsCosmosDBNoSQLRepository() {
         container = AzureCosmosDB_NoSQL.getContainer(Shorts.NAME);
+        asyncContainer = AzureCosmosDB_NoSQL.getAsyncContainer(Shorts.NAME);
+        fanInConcurrency = Integer.parseInt(Props.get("FEED_FANIN_CONCURRENCY", "8"));
+        counters = new CosmosLikeCounters(container);
+        // the likes of promoted shorts change without their documents, so they are cached briefly
+        cachedShorts = Caches.shorts(shrt -> counters.isPromoted(shrt.getid()) ? counters.cacheTtl() : 0);
     }
 
     @Override
@@ -52,19 +67,27 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
 
     @Override
     public Result<Short> getShort(String shortId) {
-        Short cachedShort = getCachedShort(shortId);
-        if (cachedShort != null) {
-            return ok(cachedShort.copyWithLikes_And_Token(cachedShort.totalLikes()));
-        }
+        Result<Short> shortResult = cachedShorts.get(shortId, () -> loadShort(shortId));
+
+        return shortResult.isOK() ? ok(shortResult.value().copyWithLikes_And_Token(shortResult.value().totalLikes())) : shortResult;
+    }
 
+    /**
+     * Reads a short from the database, adding up its like counters if it was promoted.
+     */
+    private Result<Short> loadShort(String shortId) {
         Result<Short> shortResult = tryCatch(() -> container.readItem(shortId, new PartitionKey(shortId), Short.class).getItem());
+        if (!shortResult.isOK())
+            return shortResult;
 
-        if (shortResult.isOK()) {
-            cacheShort(shortResult.value());
-            return ok(shortResult.value().copyWithLikes_And_Token(shortResult.value().totalLikes()));
-        }
+        Short shrt = shortResult.value();
+        Result<Long> total = tryCatch(() -> counters.total(shrt));
+        if (!total.isOK())
+            return Result.error(total.error());
 
-        return shortResult;
+        if (total.value() != null)
+            shrt.setTotalLikes(total.value().intValue());
+        return ok(shrt);
     }
 
     @Override
@@ -78,6 +101,10 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
 
         Result<Object> deleteResult = tryCatch(() -> container.deleteItem(shrt, new CosmosItemRequestOptions()).getItem());
         if (deleteResult.isOK()) {
+            tryCatch(() -> {
+                counters.drop(shrt.getid());
+                return null;
+            });
             removeCachedShort(shrt.getid(), shrt.ownerId());
             JavaBlobs.getInstance().delete(shrt.getid(), Token.get(shrt.getid()));
         }
@@ -87,33 +114,23 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
 
     @Override
     public Result<List<String>> getShorts(String userId) {
-        String cacheKey = GETSHORTS_CACHE_PREFIX + userId;
-        List<String> shortIds = getCachedListFromCache(cacheKey);
-
-        if (shortIds != null && !shortIds.isEmpty())
-            return Result.ok(shortIds);
+        return cachedShortIds.get(userId, () -> {
+            String query = format("SELECT * FROM shorts s WHERE s.ownerId = '%s'", userId);
+            List<String> shortIds = new ArrayList<>();
 
-        String query = format("SELECT * FROM shorts s WHERE s.ownerId = '%s'", userId);
-        shortIds = new ArrayList<>();
+            try {
+                CosmosPagedIterable<Short> results = container.queryItems(query, new CosmosQueryRequestOptions(), Short.class);
 
-        try {
-            CosmosPagedIterable<Short> results = container.queryItems(query, new CosmosQueryRequestOptions(), Short.class);
-
-            for (Short s: results.stream().toList()) {
-                shortIds.add("ID: " + s.getid() + " | Num. of likes: " + s.getTotalLikes() + "\n");
-            }
+                for (Short s: results.stream().toList()) {
+                    shortIds.add("ID: " + s.getid() + " | Num. of likes: " + s.getTotalLikes() + "\n");
+                }
 
-            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                jedis.setex(cacheKey, 3600, JSON.encode(shortIds));
-            } catch (JedisException e) {
-                Log.warning("Failed to store the results on Redis.");
+                return Result.ok(shortIds);
+            } catch (CosmosException e) {
+                Log.warning("Error on querying the results: " + e.getMessage());
+                return Result.error(INTERNAL_ERROR);
             }
-
-            return Result.ok(shortIds);
-        } catch (CosmosException e) {
-            Log.warning("Error on querying the results: " + e.getMessage());
-            return Result.error(INTERNAL_ERROR);
-        }
+        });
     }
 
     @Override
@@ -131,11 +148,7 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
         }
 
         if (res.isOK()) {
-            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                jedis.del(FOLLOWERS_CACHE_PREFIX + userId2);
-            } catch (JedisException e) {
-                Log.warning("Failed to remove cached Followers from Redis: " + e.getMessage());
-            }
+            cachedFollowers.invalidate(userId2);
             return Result.ok();
         }
         else
@@ -144,142 +157,188 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
 
     @Override
     public Result<List<String>> followers(String userId) {
-        String cacheKey = FOLLOWERS_CACHE_PREFIX + userId;
-        List<String> followers;
+        return cachedFollowers.get(userId, () -> {
+            String query = format("SELECT * FROM shorts c WHERE c.followee = '%s'", userId);
+            List<String> followers = new ArrayList<>();
 
-        followers = getCachedListFromCache(cacheKey);
-        if (followers != null && !followers.isEmpty()) {
-            return Result.ok(followers);
-        }
+            try {
+                CosmosPagedIterable<Following> results = container.queryItems(query, new CosmosQueryRequestOptions(), Following.class);
 
-        String query = format("SELECT * FROM shorts c WHERE c.followee = '%s'", userId);
-        followers = new ArrayList<>();
-
-        try {
-            CosmosPagedIterable<Following> results = container.queryItems(query, new CosmosQueryRequestOptions(), Following.class);
-
-            for (Following f : results.stream().toList()) {
-                followers.add(f.getfollower());
-            }
+                for (Following f : results.stream().toList()) {
+                    followers.add(f.getfollower());
+                }
 
-            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                jedis.setex(cacheKey, 3600, JSON.encode(followers));
-            } catch (JedisException e) {
-                Log.warning("Failed to store followers in Redis cache.");
+                return Result.ok(followers);
+            } catch (CosmosException e) {
+                return Result.error(INTERNAL_ERROR);
             }
-
-            return Result.ok(followers);
-        } catch (CosmosException e) {
-            return Result.error(INTERNAL_ERROR);
-        }
+        });
     }
 
     @Override
     public Result<Void> like(String userId, boolean isLiked, Short shrt) {
         Likes l = new Likes(userId, shrt.getid(), shrt.getOwnerId());
 
-        if (isLiked) {
-            Result<Likes> res = tryCatch( () -> container.createItem(l).getItem());
-            if (res.isOK()) {
-                shrt.setTotalLikes(shrt.getTotalLikes() + 1);
-                container.upsertItem(shrt);
-                cacheShort(shrt);
-
-                try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                    jedis.del(LIKES_CACHE_PREFIX + shrt.getid());
-                } catch (JedisException e) {
-                    Log.warning("Failed to store likes in Redis cache.");
-                }
-                return ok();
-            }
-            else
-                return Result.error(res.error());
-        } else {
-            Result<Object> res = tryCatch( () -> container.deleteItem(l, new CosmosItemRequestOptions()).getItem());
-            if (res.isOK()){
-                shrt.setTotalLikes(shrt.getTotalLikes() - 1);
-                container.upsertItem(shrt);
-                cacheShort(shrt);
-
-                try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                    jedis.del(LIKES_CACHE_PREFIX + shrt.getid());
-                } catch (JedisException e) {
-                    Log.warning("Failed to store likes in Redis cache.");
-                }
-                return ok();
-            }
+        Result<?> res = isLiked
+                ? tryCatch( () -> container.createItem(l).getItem())
+                : tryCatch( () -> container.deleteItem(l, new CosmosItemRequestOptions()).getItem());
+        if (!res.isOK())
+            return Result.error(res.error());
+
+        // the counter is incremented in place, so concurrent likes are not lost to read-modify-write races
+        Result<Short> patched = tryCatch( () -> counters.increment(shrt.getid(), isLiked ? 1 : -1));
+        if (!patched.isOK()) {
+            // the like and the short live in different partitions, so they cannot share a transactional batch
+            if (isLiked)
+                tryCatch( () -> container.deleteItem(l, new CosmosItemRequestOptions()).getItem());
             else
-                return Result.error(res.error());
+                tryCatch( () -> container.createItem(l).getItem());
+            return Result.error(patched.error());
         }
+
+        counted(shrt.getid(), patched.value());
+        cachedLikes.invalidate(shrt.getid());
+        return ok();
     }
 
     @Override
-    public Result<List<String>> likes(String shortId) {
-        String cacheKey = LIKES_CACHE_PREFIX + shortId;
-        List<String> likedUserIds = getCachedListFromCache(cacheKey);
-        if (likedUserIds != null && !likedUserIds.isEmpty()) {
-            return ok(likedUserIds);
+    public Result<Void> applyLikes(String shortId, String ownerId, Collection<String> added, Collection<String> removed) {
+        Result<Short> shrt = tryCatch( () -> container.readItem(shortId, new PartitionKey(shortId), Short.class).getItem());
+        if (!shrt.isOK())
+            return Result.error(shrt.error());
+
+        // likes already there, or already gone, are left out of the delta
+        int delta = 0;
+        Result<?> failed = null;
+        for (var userId : added) {
+            var res = tryCatch( () -> container.createItem(new Likes(userId, shortId, ownerId)).getItem());
+            if (res.isOK())
+                delta++;
+            else if (res.error() != CONFLICT) {
+                failed = res;
+                break;
+            }
+        }
+        for (var userId : removed) {
+            if (failed != null)
+                break;
+            var res = tryCatch( () -> container.deleteItem(new Likes(userId, shortId, ownerId), new CosmosItemRequestOptions()).getItem());
+            if (res.isOK())
+                delta--;
+            else if (res.error() != NOT_FOUND)
+                failed = res;
         }
 
-        String query = format("SELECT * FROM shorts l WHERE l.shortId = '%s'", shortId);
-        likedUserIds = new ArrayList<>();
+        // the likes written before a failure are counted anyway, as writing them again will skip them
+        if (delta != 0) {
+            int likes = delta;
+            Result<Short> patched = tryCatch( () -> counters.increment(shortId, likes));
+            if (!patched.isOK())
+                return Result.error(patched.error());
+            counted(shortId, patched.value());
+        }
 
-        try {
-            CosmosPagedIterable<Likes> results = container.queryItems(query, new CosmosQueryRequestOptions(), Likes.class);
+        cachedLikes.invalidate(shortId);
+        return failed != null ? Result.error(failed.error()) : ok();
+    }
 
-            for (Likes l : results.stream().toList()) {
-                likedUserIds.add(l.getUserId());
-            }
+    @Override
+    public Result<List<String>> likes(String shortId) {
+        return cachedLikes.get(shortId, () -> {
+            String query = format("SELECT * FROM shorts l WHERE l.shortId = '%s'", shortId);
+            List<String> likedUserIds = new ArrayList<>();
+
+            try {
+                CosmosPagedIterable<Likes> results = container.queryItems(query, new CosmosQueryRequestOptions(), Likes.class);
 
-            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                jedis.setex(cacheKey, 3600, JSON.encode(likedUserIds));
-            } catch (JedisException e) {
-                Log.warning("Failed to store likes in Redis cache.");
+                for (Likes l : results.stream().toList()) {
+                    likedUserIds.add(l.getUserId());
+                }
+
+                return Result.ok(likedUserIds);
+            } catch (CosmosException e) {
+                return Result.error(INTERNAL_ERROR);
             }
+        });
+    }
 
-            return Result.ok(likedUserIds);
+    @Override
+    public Result<List<String>> likedBy(String userId) {
+        String query = format("SELECT * FROM shorts l WHERE l.userId = '%s'", userId);
+        try {
+            CosmosPagedIterable<Likes> results = container.queryItems(query, new CosmosQueryRequestOptions(), Likes.class);
+            return Result.ok(results.stream().map(Likes::getShortId).toList());
         } catch (CosmosException e) {
             return Result.error(INTERNAL_ERROR);
         }
     }
 
     @Override
-    public Result<List<String>> getFeed(String userId) {
-
-        List<String> followingUserIds = followees(userId).value();
-
-        List<String> feedShortIds = new ArrayList<>();
+    public Result<List<Short>> getFeed(String userId, FeedCursor after, long since, int limit) {
+        Result<List<String>> followees = followees(userId);
+        if (!followees.isOK())
+            return Result.error(followees.error());
 
-        if (!followingUserIds.isEmpty()) {
-            List<Short> allShorts = new ArrayList<>();
+        List<String> ownerIds = new ArrayList<>(followees.value());
+        ownerIds.add(userId);
 
-            for (String s : followingUserIds) {
-                String feedQuery = format("SELECT * FROM shorts s WHERE s.ownerId = '%s' AND s.timestamp <> 0 ORDER BY s.timestamp DESC", s);
-                CosmosPagedIterable<Short> feedResults = container.queryItems(feedQuery, new CosmosQueryRequestOptions(), Short.class);
-
-                allShorts.addAll(feedResults.stream().toList());
-            }
+        // one query per owner, up to FEED_FANIN_CONCURRENCY of them at a time
+        return tryCatch(() -> {
+            List<Iterator<Short>> timelines = Flux.fromIterable(ownerIds)
+                    .flatMap(ownerId -> recentShortsAsync(ownerId, after, since, limit), fanInConcurrency)
+                    .map(List::iterator)
+                    .collectList()
+                    .block();
+            return MergeIterator.topK(timelines, FEED_ORDER, limit);
+        });
+    }
 
-            allShorts.sort(Comparator.comparing(Short::getTimestamp).reversed());
-            Log.info(allShorts.toString());
+    @Override
+    public Result<List<Short>> recentShorts(String userId, FeedCursor after, long since, int limit) {
+        return tryCatch(() -> recentShortsAsync(userId, after, since, limit).block());
+    }
 
-            feedShortIds = allShorts.stream()
-                    .map(Short::getid)
-                    .collect(Collectors.toList());
+    private Mono<List<Short>> recentShortsAsync(String userId, FeedCursor after, long since, int limit) {
+        // ordering by id too would need a composite index, so the shorts with the same timestamp
+        // as the cursor are read apart and the page is put in order here. The cursor comes from
+        // the client, so its values are bound rather than formatted in
+        List<SqlParameter> params = new ArrayList<>(List.of(new SqlParameter("@ownerId", userId),
+                new SqlParameter("@since", Math.max(since, 0))));
+        if (after != null)
+            params.add(new SqlParameter("@afterTimestamp", after.timestamp()));
+        var query = new SqlQuerySpec(format("SELECT TOP %d * FROM shorts s WHERE s.ownerId = @ownerId AND s.timestamp > @since%s ORDER BY s.timestamp DESC",
+                limit, after == null ? "" : " AND s.timestamp < @afterTimestamp"), params);
+
+        Flux<Short> ties = Flux.empty();
+        if (after != null && after.timestamp() > since) {
+            var tiesQuery = new SqlQuerySpec("SELECT * FROM shorts s WHERE s.ownerId = @ownerId AND s.timestamp = @afterTimestamp AND s.id < @afterId",
+                    new SqlParameter("@ownerId", userId), new SqlParameter("@afterTimestamp", after.timestamp()),
+                    new SqlParameter("@afterId", after.shortId()));
+            ties = asyncContainer.queryItems(tiesQuery, new CosmosQueryRequestOptions(), Short.class);
         }
 
-        return Result.ok(feedShortIds);
+        // pages are fetched with continuation tokens as the flux is consumed, so only what fits is read
+        Flux<Short> older = asyncContainer.queryItems(query, new CosmosQueryRequestOptions(), Short.class).take(limit);
+
+        return Flux.concat(ties, older).collectList().map(shorts -> {
+            shorts.sort(FEED_ORDER);
+            return shorts.subList(0, Math.min(shorts.size(), limit));
+        });
     }
 
     @Override
     public Result<Void> deleteAllShorts(String userId) {
-        invalidateCacheForUser(userId);
-
-        //delete shorts
+        //delete shorts, keeping their ids to drop them from the cache
+        List<String> shortIds = new ArrayList<>();
         String queryDeleteShorts = format("SELECT * FROM shorts s WHERE s.ownerId = '%s'", userId);
         CosmosPagedIterable<Short> shorts = container.queryItems(queryDeleteShorts, new CosmosQueryRequestOptions(), Short.class);
         shorts.forEach(shrt -> {
+            shortIds.add(shrt.getid());
             tryCatch( () -> container.deleteItem(shrt, new CosmosItemRequestOptions()));
+            tryCatch( () -> {
+                counters.drop(shrt.getid());
+                return null;
+            });
             JavaBlobs.getInstance().delete(shrt.getid(), Token.get(shrt.getid()));
         });
 
@@ -293,13 +352,12 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
         CosmosPagedIterable<Likes> likes = container.queryItems(queryDeleteLikes, new CosmosQueryRequestOptions(), Likes.class);
         likes.forEach(like -> tryCatch( () -> container.deleteItem(like, new CosmosItemRequestOptions())));
 
+        invalidateCacheForUser(userId, shortIds);
         return Result.ok();
     }
 
-    // Métodos auxiliares de cache
-
-    private Result<List<String>> followees(String userId) {
-        String cacheKey = "followees_user:" + userId;
+    @Override
+    public Result<List<String>> followees(String userId) {
         List<String> followees;
 
         String query = format("SELECT * FROM shorts c WHERE c.follower = '%s'", userId);
@@ -312,84 +370,39 @@ public class ShortsCosmosDBNoSQLRepository implements ShortsRepository {
                 followees.add(f.getfollowee());
             }
 
-            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                jedis.setex(cacheKey, 3600, JSON.encode(followees));
-            } catch (JedisException e) {
-                Log.warning("Failed to store followers in Redis cache.");
-            }
-
             return Result.ok(followees);
         } catch (CosmosException e) {
             return Result.error(INTERNAL_ERROR);
         }
     }
 
-    private void invalidateCacheForUser(String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            // Invalida o cache dos shorts do usuário
-            String shortsCacheKey = GETSHORTS_CACHE_PREFIX + userId;
-            jedis.del(shortsCacheKey);
-
-            // Invalida o cache dos seguidores do usuário
-            String followersCacheKey = FOLLOWERS_CACHE_PREFIX + userId;
-            jedis.del(followersCacheKey);
-
-            // Obtém todos os shorts do usuário e invalida o cache de likes para cada um
-            String queryUserShorts = format("SELECT s.shortId FROM shorts s WHERE s.ownerId = '%s'", userId);
-            CosmosPagedIterable<Short> userShorts = container.queryItems(queryUserShorts, new CosmosQueryRequestOptions(), Short.class);
-            userShorts.forEach(shrt -> {
-                String likesCacheKey = LIKES_CACHE_PREFIX + shrt.getid();
-                jedis.del(likesCacheKey);
-            });
+    // Métodos auxiliares de cache
 
-            Log.info("Cache invalidated for user: " + userId);
-        } catch (JedisException e) {
-            Log.warning("Failed to invalidate cache for user " + userId + ": " + e.getMessage());
-        }
-    }
+    /**
+     * Drops everything cached for a user and their deleted shorts: the lists of the user go with
+     * their generation, and the shorts in a single round trip.
+     */
+    private void invalidateCacheForUser(String userId, List<String> shortIds) {
+        Caches.invalidateUser(userId);
+        cachedShorts.invalidate(shortIds);
 
-    private void cacheShort(Short shrt) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set(SHORT_CACHE_PREFIX + shrt.getid(), JSON.encode(shrt));
-        } catch (JedisException e) {
-            Log.warning("Failed to cache short in Redis: " + e.getMessage());
-        }
+        Log.info("Cache invalidated for user: " + userId);
     }
 
-    private Short getCachedShort(String shortId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String shortJson = jedis.get(SHORT_CACHE_PREFIX + shortId);
-            return shortJson != null ? JSON.decode(shortJson, Short.class) : null;
-        } catch (JedisException e) {
-            Log.warning("Redis access failed, unable to retrieve cached short.");
-            return null;
-        }
+    /**
+     * Refreshes the cached short after its likes were counted, given the short if that changed it.
+     */
+    private void counted(String shortId, Short patched) {
+        // if one of its counters changed instead, the cached short is only made to expire soon enough
+        if (patched != null)
+            cachedShorts.put(shortId, patched);
+        else
+            cachedShorts.expire(shortId, counters.cacheTtl());
     }
 
     private void removeCachedShort(String shortId, String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.del(SHORT_CACHE_PREFIX + shortId);
-            jedis.del(GETSHORTS_CACHE_PREFIX + userId);
-        } catch (JedisException e) {
-            Log.warning("Failed to remove cached short from Redis: " + e.getMessage());
-        }
-    }
-
-    private List<String> getCachedListFromCache(String cacheKey) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            // Try retrieving from Redis cache
-            String cachedJson = jedis.get(cacheKey);
-            if (cachedJson != null) {
-                List<String> cachedList = JSON.decode(cachedJson, new TypeReference<List<String>>() {});
-                if (cachedList != null) {
-                    return cachedList;
-                }
-            }
-
-        } catch (JedisException e) {
-            Log.warning("Failed to access or update Redis cache for key: " + cacheKey);
-        }
-        return null;
+        cachedShorts.invalidate(shortId);
+        cachedShortIds.invalidate(userId);
     }
 
     private <T> Result<T> tryCatch( Supplier<T> supplierFunc) {
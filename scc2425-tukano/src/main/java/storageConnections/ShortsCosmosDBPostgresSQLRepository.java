@@ -1,33 +1,35 @@
 package storageConnections;
 
 import static java.lang.String.format;
+import static tukano.api.Result.ErrorCode.NOT_FOUND;
 import static tukano.api.Result.error;
 import static tukano.api.Result.errorOrValue;
 import static tukano.api.Result.ok;
 import static utils.DB.getOne;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.exceptions.JedisException;
 import tukano.api.Result;
 import tukano.api.Short;
+import tukano.impl.data.FeedCursor;
 import tukano.impl.data.Following;
 import tukano.impl.data.Likes;
 import utils.DB;
 import tukano.impl.Token;
 import tukano.impl.JavaBlobs;
-import utils.JSON;
 
 public class ShortsCosmosDBPostgresSQLRepository implements ShortsRepository {
 
     private static final Logger Log = Logger.getLogger(ShortsCosmosDBPostgresSQLRepository.class.getName());
-    private static final String SHORT_CACHE_PREFIX = "short:";
-    private static final String GETSHORTS_CACHE_PREFIX = "shorts_user:";
-    private static final String FOLLOWERS_CACHE_PREFIX = "followers_user:";
-    private static final String LIKES_CACHE_PREFIX = "likes_short:";
+    private final CacheFamily<Short> cachedShorts = Caches.shorts();
+    private final CacheFamily<List<String>> cachedShortIds = Caches.shortsOfUser();
+    private final CacheFamily<List<String>> cachedFollowers = Caches.followersOfUser();
+    private final CacheFamily<List<String>> cachedLikes = Caches.likesOfShort();
 
     public ShortsCosmosDBPostgresSQLRepository() {}
 
@@ -44,20 +46,20 @@ public class ShortsCosmosDBPostgresSQLRepository implements ShortsRepository {
 
     @Override
     public Result<Short> getShort(String shortId) {
-        Short cachedShort = getCachedShort(shortId);
-        if (cachedShort != null) {
-            return ok(cachedShort.copyWithLikes_And_Token(cachedShort.totalLikes()));
-        }
-
-        var query = format("SELECT count(*) FROM Likes l WHERE l.shortId = '%s'", shortId);
-        var likes = DB.sql(query, Long.class);
-        Result<Short> shortResult = errorOrValue( getOne(shortId, Short.class), shrt -> shrt.copyWithLikes_And_Token( likes.get(0)));
+        Result<Short> shortResult = cachedShorts.get(shortId, () -> loadShort(shortId));
 
-        if (shortResult.isOK()) {
-            cacheShort(shortResult.value());
-        }
+        return shortResult.isOK() ? ok(shortResult.value().copyWithLikes_And_Token(shortResult.value().totalLikes())) : shortResult;
+    }
 
-        return shortResult;
+    /**
+     * Reads a short from the database, counting its likes.
+     */
+    private Result<Short> loadShort(String shortId) {
+        return errorOrValue( getOne(shortId, Short.class), shrt -> {
+            var query = format("SELECT count(*) FROM Likes l WHERE l.shortId = '%s'", shortId);
+            shrt.setTotalLikes(DB.sql(query, Long.class).get(0).intValue());
+            return shrt;
+        });
     }
 
     @Override
@@ -80,22 +82,10 @@ public class ShortsCosmosDBPostgresSQLRepository implements ShortsRepository {
 
     @Override
     public Result<List<String>> getShorts(String userId) {
-        String cacheKey = GETSHORTS_CACHE_PREFIX + userId;
-        List<String> shortIds = getCachedListFromCache(cacheKey);
-
-        if (shortIds != null && !shortIds.isEmpty())
-            return Result.ok(shortIds);
-
-        var query = format("SELECT s.id FROM Shorts s WHERE s.ownerId = '%s'", userId);
-        shortIds = DB.sql( query, String.class);
-
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.setex(cacheKey, 3600, JSON.encode(shortIds));
-        } catch (JedisException e) {
-            Log.warning("Failed to store the results on Redis.");
-        }
-
-        return ok(shortIds);
+        return cachedShortIds.get(userId, () -> {
+            var query = format("SELECT s.id FROM Shorts s WHERE s.ownerId = '%s'", userId);
+            return ok(DB.sql( query, String.class));
+        });
     }
 
     @Override
@@ -104,11 +94,7 @@ public class ShortsCosmosDBPostgresSQLRepository implements ShortsRepository {
         Result<Following> followingResult = isFollowing ? DB.insertOne(f) : DB.deleteOne(f);
 
         if (followingResult.isOK()){
-            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                jedis.del(FOLLOWERS_CACHE_PREFIX + userId2);
-            } catch (JedisException e) {
-                Log.warning("Failed to remove cached Followers from Redis: " + e.getMessage());
-            }
+            cachedFollowers.invalidate(userId2);
             return ok();
         }
         else
@@ -118,105 +104,147 @@ public class ShortsCosmosDBPostgresSQLRepository implements ShortsRepository {
 
     @Override
     public Result<List<String>> followers(String userId) {
-        String cacheKey = FOLLOWERS_CACHE_PREFIX + userId;
-        List<String> followers;
+        return cachedFollowers.get(userId, () -> {
+            var query = format("SELECT f.follower FROM Following f WHERE f.followee = '%s'", userId);
+            return ok(DB.sql(query, String.class));
+        });
+    }
 
-        followers = getCachedListFromCache(cacheKey);
-        if (followers != null && !followers.isEmpty()) {
-            return Result.ok(followers);
-        }
+    @Override
+    public Result<List<String>> followees(String userId) {
+        var query = format("SELECT f.followee FROM Following f WHERE f.follower = '%s'", userId);
+        return ok(DB.sql(query, String.class));
+    }
+
+    @Override
+    public Result<Void> like(String userId, boolean isliked, Short shrt) {
+        var l = new Likes(userId, shrt.getid(), shrt.getOwnerId());
 
-        var query = format("SELECT f.follower FROM Following f WHERE f.followee = '%s'", userId);
+        // the like and the counter change together, and the counter is changed in place,
+        // so concurrent likes are not lost to read-modify-write races
+        Result<Void> likeResult = DB.transaction(hibernate -> {
+            if (isliked)
+                hibernate.persist(l);
+            else {
+                var query = format("DELETE FROM Likes l WHERE l.id = '%s'", l.getid());
+                if (hibernate.createNativeQuery(query, Likes.class).executeUpdate() == 0)
+                    return Result.<Void>error(NOT_FOUND);
+            }
 
+            var query = format("UPDATE Shorts SET totalLikes = totalLikes %s 1 WHERE id = '%s'", isliked ? "+" : "-", shrt.getid());
+            hibernate.createNativeQuery(query, Short.class).executeUpdate();
+            return ok();
+        });
 
-        followers = DB.sql(query, String.class);
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.setex(cacheKey, 3600, JSON.encode(followers));
-        } catch (JedisException e) {
-            Log.warning("Failed to store followers in Redis cache.");
+        if (likeResult.isOK()) {
+            removeCachedShort(shrt.getid(), shrt.getOwnerId());
+            cachedLikes.invalidate(shrt.getid());
         }
-        return ok(followers);
+        return likeResult;
     }
 
     @Override
-    public Result<Void> like(String userId, boolean isliked, Short shrt) {
-        var l = new Likes(userId, shrt.getid(), shrt.getOwnerId());
-        Result<Likes> likesResult;
-        if (isliked) {
-            likesResult = DB.insertOne(l);
-            if (likesResult.isOK()) {
-                shrt.setTotalLikes(shrt.getTotalLikes() + 1);
-                DB.updateOne(shrt);
-                cacheShort(shrt);
-
-                try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                    jedis.del(LIKES_CACHE_PREFIX + shrt.getid());
-                } catch (JedisException e) {
-                    Log.warning("Failed to store likes in Redis cache.");
-                }
-                return ok();
+    public Result<Void> applyLikes(String shortId, String ownerId, Collection<String> added, Collection<String> removed) {
+        Result<Void> res = DB.transaction(hibernate -> {
+            // locks the short, so likes of the same short are written one batch at a time
+            var query = format("UPDATE Shorts SET totalLikes = totalLikes WHERE id = '%s'", shortId);
+            if (hibernate.createNativeQuery(query, Short.class).executeUpdate() == 0)
+                return Result.<Void>error(NOT_FOUND);
+
+            int delta = 0;
+            for (var userId : added) {
+                var l = new Likes(userId, shortId, ownerId);
+                query = format("INSERT INTO Likes (id, userId, shortId, ownerId) VALUES ('%s', '%s', '%s', '%s') ON CONFLICT DO NOTHING",
+                        l.getid(), userId, shortId, ownerId);
+                delta += hibernate.createNativeQuery(query, Likes.class).executeUpdate();
             }
-            else
-                return Result.error(likesResult.error());
-        }
-        else {
-            likesResult = DB.deleteOne(l);
-            if (likesResult.isOK()) {
-                shrt.setTotalLikes(shrt.getTotalLikes() - 1);
-                DB.updateOne(shrt);
-                cacheShort(shrt);
-
-                try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-                    jedis.del(LIKES_CACHE_PREFIX + shrt.getid());
-                } catch (JedisException e) {
-                    Log.warning("Failed to store likes in Redis cache.");
-                }
-                return ok();
+            for (var userId : removed) {
+                query = format("DELETE FROM Likes l WHERE l.id = '%s'", new Likes(userId, shortId, ownerId).getid());
+                delta -= hibernate.createNativeQuery(query, Likes.class).executeUpdate();
             }
-            else
-                return Result.error(likesResult.error());
+
+            if (delta != 0) {
+                query = format("UPDATE Shorts SET totalLikes = totalLikes + %d WHERE id = '%s'", delta, shortId);
+                hibernate.createNativeQuery(query, Short.class).executeUpdate();
+            }
+            return ok();
+        });
+
+        if (res.isOK()) {
+            removeCachedShort(shortId, ownerId);
+            cachedLikes.invalidate(shortId);
         }
+        return res;
     }
 
     @Override
     public Result<List<String>> likes(String shortId) {
-        String cacheKey = LIKES_CACHE_PREFIX + shortId;
-        List<String> likedUserIds = getCachedListFromCache(cacheKey);
-        if (likedUserIds != null && !likedUserIds.isEmpty()) {
-            return ok(likedUserIds);
-        }
+        return cachedLikes.get(shortId, () -> {
+            var query = format("SELECT l.userId FROM Likes l WHERE l.shortId = '%s'", shortId);
+            return ok(DB.sql(query, String.class));
+        });
+    }
 
-        var query = format("SELECT l.userId FROM Likes l WHERE l.shortId = '%s'", shortId);
+    @Override
+    public Result<List<String>> likedBy(String userId) {
+        var query = format("SELECT l.shortId FROM Likes l WHERE l.userId = '%s'", userId);
+        return ok(DB.sql(query, String.class));
+    }
 
-        likedUserIds = DB.sql(query, String.class);
+    @Override
+    public Result<List<Short>> getFeed(String userId, FeedCursor after, long since, int limit) {
+        // Takes at most limit shorts from each owner, through the (ownerId, timestamp) index,
+        // so only those are merged into the page rather than every short of every followee
+        final var QUERY_FMT = """
+				SELECT s.* FROM
+					(SELECT f.followee AS ownerId FROM Following f WHERE f.follower = :userId UNION SELECT :userId) o
+					CROSS JOIN LATERAL
+						(SELECT * FROM Shorts s WHERE s.ownerId = o.ownerId AND %s
+							ORDER BY s.timestamp DESC, s.id DESC LIMIT %d) s
+				ORDER BY s.timestamp DESC, s.id DESC LIMIT %d""";
+
+        var params = windowParams(after, since);
+        params.put("userId", userId);
+        return ok(DB.sql(format(QUERY_FMT, window(after), limit, limit), Short.class, params));
+    }
 
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.setex(cacheKey, 3600, JSON.encode(likedUserIds));
-        } catch (JedisException e) {
-            Log.warning("Failed to store likes in Redis cache.");
-        }
+    @Override
+    public Result<List<Short>> recentShorts(String userId, FeedCursor after, long since, int limit) {
+        var query = format("SELECT * FROM Shorts s WHERE s.ownerId = :userId AND %s ORDER BY s.timestamp DESC, s.id DESC LIMIT %d",
+                window(after), limit);
+        var params = windowParams(after, since);
+        params.put("userId", userId);
+        return ok(DB.sql(query, Short.class, params));
+    }
 
-        return ok(likedUserIds);
+    // Keyset bounds of a page of shorts, so only the rows of the page are read; the cursor
+    // comes from the client, so its values are bound (see windowParams) rather than formatted in
+    private static String window(FeedCursor after) {
+        var window = "s.timestamp > :since";
+        if (after != null)
+            window += " AND (s.timestamp < :afterTimestamp OR (s.timestamp = :afterTimestamp AND s.id < :afterId))";
+        return window;
     }
 
-    @Override
-    public Result<List<String>> getFeed(String userId) {
-        final var QUERY_FMT = """
-				SELECT s.id, s.timestamp FROM Shorts s WHERE s.ownerId = '%s'
-				UNION
-				SELECT s.id, s.timestamp FROM Shorts s, Following f
-					WHERE
-						f.followee = s.ownerId AND f.follower = '%s'
-				ORDER BY timestamp DESC""";
-
-        return ok(DB.sql(format(QUERY_FMT, userId, userId), String.class));
+    private static Map<String, Object> windowParams(FeedCursor after, long since) {
+        var params = new HashMap<String, Object>();
+        params.put("since", since);
+        if (after != null) {
+            params.put("afterTimestamp", after.timestamp());
+            params.put("afterId", after.shortId());
+        }
+        return params;
     }
 
     @Override
     public Result<Void> deleteAllShorts(String userId) {
-        return DB.transaction( (hibernate) -> {
+        List<String> shortIds = new ArrayList<>();
+        Result<Void> res = DB.transaction( (hibernate) -> {
+
+            //delete shorts, keeping their ids to drop them from the cache
+            var query0 = format("SELECT s.id FROM Shorts s WHERE s.ownerId = '%s'", userId);
+            shortIds.addAll(hibernate.createNativeQuery(query0, String.class).list());
 
-            //delete shorts
             var query1 = format("DELETE FROM Shorts s WHERE s.ownerId = '%s'", userId);
             hibernate.createNativeQuery(query1, Short.class).executeUpdate();
 
@@ -227,79 +255,28 @@ public class ShortsCosmosDBPostgresSQLRepository implements ShortsRepository {
             //delete likes
             var query3 = format("DELETE FROM Likes l WHERE l.ownerId = '%s' OR l.userId = '%s'", userId, userId);
             hibernate.createNativeQuery(query3, Likes.class).executeUpdate();
-
-            invalidateCacheForUser(userId);
         });
-    }
 
-    private void cacheShort(Short shrt) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set(SHORT_CACHE_PREFIX + shrt.getid(), JSON.encode(shrt));
-        } catch (JedisException e) {
-            Log.warning("Failed to cache short in Redis: " + e.getMessage());
-        }
-    }
+        if (res.isOK())
+            invalidateCacheForUser(userId, shortIds);
 
-    private Short getCachedShort(String shortId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String shortJson = jedis.get(SHORT_CACHE_PREFIX + shortId);
-            return shortJson != null ? JSON.decode(shortJson, Short.class) : null;
-        } catch (JedisException e) {
-            Log.warning("Redis access failed, unable to retrieve cached short.");
-            return null;
-        }
+        return res;
     }
 
     private void removeCachedShort(String shortId, String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.del(SHORT_CACHE_PREFIX + shortId);
-            jedis.del(GETSHORTS_CACHE_PREFIX + userId);
-        } catch (JedisException e) {
-            Log.warning("Failed to remove cached short from Redis: " + e.getMessage());
-        }
-    }
-
-    private List<String> getCachedListFromCache(String cacheKey) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            // Try retrieving from Redis cache
-            String cachedJson = jedis.get(cacheKey);
-            if (cachedJson != null) {
-                List<String> cachedList = JSON.decode(cachedJson, new TypeReference<List<String>>() {});
-                if (cachedList != null) {
-                    return cachedList;
-                }
-            }
-
-        } catch (JedisException e) {
-            Log.warning("Failed to access or update Redis cache for key: " + cacheKey);
-        }
-        return null;
+        cachedShorts.invalidate(shortId);
+        cachedShortIds.invalidate(userId);
     }
 
-    private void invalidateCacheForUser(String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-
-            // Invalida o cache dos shorts do usuário
-            String shortsCacheKey = GETSHORTS_CACHE_PREFIX + userId;
-            jedis.del(shortsCacheKey);
-
-            // Invalida o cache dos seguidores do usuário
-            String followersCacheKey = FOLLOWERS_CACHE_PREFIX + userId;
-            jedis.del(followersCacheKey);
-
-            // Obtém todos os shorts do usuário e invalida o cache de likes para cada um
-            String queryUserShorts = format("SELECT s.id FROM shorts s WHERE s.ownerId = '%s'", userId);
-            List<String> userShorts = DB.sql(queryUserShorts, String.class);
-            userShorts.forEach(shrt -> {
-                String likesCacheKey = LIKES_CACHE_PREFIX + shrt;
-                jedis.del(likesCacheKey);
-            });
-
-            Log.info("Cache invalidated for user: " + userId);
-        } catch (JedisException e) {
-            Log.warning("Failed to invalidate cache for user " + userId + ": " + e.getMessage());
-        }
+    /**
+     * Drops everything cached for a user and their deleted shorts: the lists of the user go with
+     * their generation, and the shorts in a single round trip.
+     */
+    private void invalidateCacheForUser(String userId, List<String> shortIds) {
+        Caches.invalidateUser(userId);
+        cachedShorts.invalidate(shortIds);
 
+        Log.info("Cache invalidated for user: " + userId);
     }
 
 }
\ No newline at end of file
@@ -3,7 +3,9 @@ package storageConnections;
 import tukano.api.Result;
 import tukano.api.Short;
 import tukano.api.Shorts;
+import tukano.impl.data.FeedCursor;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ShortsRepository {
@@ -19,11 +21,36 @@ public interface ShortsRepository {
 
     Result<List<String>> followers(String userId);
 
+    Result<List<String>> followees(String userId);
+
     Result<Void> like(String userId, boolean isliked, Short shrt);
 
     Result<List<String>> likes(String shortId);
 
-    Result<List<String>> getFeed(String userId);
+    /**
+     * Returns the ids of the shorts a user likes.
+     */
+    Result<List<String>> likedBy(String userId);
+
+    /**
+     * Writes likes of a short that were recorded elsewhere first: adds the likes of the users added and removes
+     * those of the users removed, skipping likes already there or already gone, and changes the
+     * number of likes of the short by as many likes as that added less those it removed, so
+     * writing the same likes again changes nothing.
+     */
+    Result<Void> applyLikes(String shortId, String ownerId, Collection<String> added, Collection<String> removed);
+
+    /**
+     * Returns up to limit of the shorts of a user and of the users they follow, ordered as in a
+     * feed, that come after a cursor (if not null) and are newer than since.
+     */
+    Result<List<Short>> getFeed(String userId, FeedCursor after, long since, int limit);
+
+    /**
+     * Returns up to limit of the shorts of a user, ordered as in a feed, that come after
+     * a cursor (if not null) and are newer than since.
+     */
+    Result<List<Short>> recentShorts(String userId, FeedCursor after, long since, int limit);
 
     Result<Void> deleteAllShorts(String userId);
 }
@@ -0,0 +1,120 @@
+package storageConnections;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+import utils.Props;
+import utils.Sleep;
+
+/**
+ * Loads what missed the cache once per key, however many callers miss it at the same time.
+ *
+ * Within a JVM, the first caller to miss a key loads it, and the others wait for that load
+ * and share its value. With CACHE_LOAD_LEASE set, the loader of a key also takes a lease on
+ * it in Redis (load_lease:{key}) for CACHE_LOAD_LEASE_MS milliseconds; loaders elsewhere that
+ * find the lease taken poll the cache for the value meanwhile, and only load it themselves
+ * if it does not show up before the lease expires.
+ */
+public class SingleFlight {
+	private static final Logger Log = Logger.getLogger(SingleFlight.class.getName());
+
+	private static final String LEASE_PREFIX = "load_lease:";
+	private static final int LEASE_POLL_MS = 10;
+
+	// Releases a lease, if still held with the token in ARGV[1]
+	private static final String RELEASE_SCRIPT = """
+			if redis.call('get', KEYS[1]) == ARGV[1] then
+				return redis.call('del', KEYS[1])
+			end
+			return 0""";
+
+	private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+	private final boolean leased;
+	private final long leaseMs;
+
+	public SingleFlight() {
+		this.leased = Boolean.parseBoolean(Props.get("CACHE_LOAD_LEASE", "false"));
+		this.leaseMs = Long.parseLong(Props.get("CACHE_LOAD_LEASE_MS", "200"));
+	}
+
+	/**
+	 * Returns the value of a key that missed the cache, loading it unless a load of it is
+	 * already in flight.
+	 *
+	 * @param cached reads the value from the cache, returning null if it is not there
+	 * @param loader loads the value and caches it
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T load(String key, Supplier<T> cached, Supplier<T> loader) {
+		var mine = new CompletableFuture<Object>();
+		var current = inFlight.putIfAbsent(key, mine);
+		if (current != null)
+			return (T) join(current);
+
+		try {
+			var value = leased ? leased(key, cached, loader) : loader.get();
+			mine.complete(value);
+			return value;
+		} catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, mine);
+		}
+	}
+
+	private <T> T leased(String key, Supplier<T> cached, Supplier<T> loader) {
+		var token = UUID.randomUUID().toString();
+		if (acquire(key, token)) {
+			try {
+				return loader.get();
+			} finally {
+				release(key, token);
+			}
+		}
+
+		// loaded elsewhere, so the value should be cached soon
+		for (long waited = 0; waited < leaseMs; waited += LEASE_POLL_MS) {
+			Sleep.ms(LEASE_POLL_MS);
+			var value = cached.get();
+			if (value != null)
+				return value;
+		}
+		return loader.get();
+	}
+
+	private boolean acquire(String key, String token) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			return jedis.set(LEASE_PREFIX + key, token, new SetParams().nx().px(leaseMs)) != null;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to take load lease on " + key + ": " + e.getMessage());
+			return true;
+		}
+	}
+
+	private void release(String key, String token) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.eval(RELEASE_SCRIPT, List.of(LEASE_PREFIX + key), List.of(token));
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to release load lease on " + key + ": " + e.getMessage());
+		}
+	}
+
+	private static Object join(CompletableFuture<Object> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause)
+				throw cause;
+			throw e;
+		}
+	}
+}
@@ -6,7 +6,6 @@ import com.azure.cosmos.models.CosmosItemRequestOptions;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.util.CosmosPagedIterable;
-import redis.clients.jedis.Jedis;
 import tukano.api.Result;
 import tukano.api.Shorts;
 import tukano.api.User;
@@ -14,7 +13,6 @@ import tukano.api.Users;
 import tukano.api.rest.RestShorts;
 import tukano.impl.JavaShorts;
 import tukano.impl.JavaUsers;
-import utils.JSON;
 
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -29,9 +27,9 @@ import static tukano.api.Result.error;
 import static tukano.api.Result.ok;
 
 public class UsersCosmosDBNoSQLRepository implements UsersRepository{
-    private static final String USER_CACHE_PREFIX = "user:";
     private final CosmosContainer container;
     private final Shorts shorts;
+    private final CacheFamily<User> cachedUsers = Caches.users();
 
     public UsersCosmosDBNoSQLRepository() {
         container = AzureCosmosDB_NoSQL.getContainer(Users.NAME);
@@ -40,35 +38,26 @@ public class UsersCosmosDBNoSQLRepository implements UsersRepository{
 
     @Override
     public Result<String> createUser(User user) {
-        return tryCatch(() -> {
+        Result<String> res = tryCatch(() -> {
             String userId = container.createItem(user).getItem().getid();
             System.out.println("User created with ID: " + userId + "\n");
             return userId;
         });
+        if (res.isOK())
+            cachedUsers.invalidate(res.value());
+
+        return res;
     }
 
 
     @Override
     public Result<User> getUser(String userId, String pwd) {
-        User user = getCachedUser(userId);
-        if (user != null && user.getPwd().equals(pwd)) {
-            return ok(user);
-        } else if (user != null && !user.getPwd().equals(pwd)) {
-            return Result.error(FORBIDDEN);
-        }
-
+        Result<User> user = cachedUsers.get(userId, () -> tryCatch( () -> container.readItem(userId, new PartitionKey(userId), User.class).getItem()));
 
-        Result<User> userRes = tryCatch( () -> container.readItem(userId, new PartitionKey(userId), User.class).getItem());
-
-        if (userRes.isOK()) {
-            if (!userRes.value().getPwd().equals(pwd)) {
-                return Result.error(FORBIDDEN);
-            }
-            cacheUser(userRes.value());
-            System.out.println("User cached successfully.");
-        }
+        if (user.isOK() && !user.value().getPwd().equals(pwd))
+            return Result.error(FORBIDDEN);
 
-        return userRes;
+        return user;
     }
 
     @Override
@@ -81,7 +70,7 @@ public class UsersCosmosDBNoSQLRepository implements UsersRepository{
 
         Result<User> updatedUserResult = tryCatch(() -> container.upsertItem(newUser).getItem());
         if (updatedUserResult.isOK()) {
-            cacheUser(updatedUserResult.value());
+            cachedUsers.put(userId, updatedUserResult.value());
         }
 
         return updatedUserResult;
@@ -97,7 +86,7 @@ public class UsersCosmosDBNoSQLRepository implements UsersRepository{
 
         if(result.isOK()){
             shorts.deleteAllShorts(userId, pwd, RestShorts.TOKEN);
-            removeCachedUser(userId);
+            cachedUsers.invalidate(userId);
 
             return oldUserResult;
         }
@@ -145,23 +134,4 @@ public class UsersCosmosDBNoSQLRepository implements UsersRepository{
         };
     }
 
-    private void cacheUser(User user) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set(USER_CACHE_PREFIX + user.getid(), JSON.encode(user));
-        }
-    }
-
-    private User getCachedUser(String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String userJson = jedis.get(USER_CACHE_PREFIX + userId);
-            return userJson != null ? JSON.decode(userJson, User.class) : null;
-        }
-    }
-
-    private void removeCachedUser(String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.del(USER_CACHE_PREFIX + userId);
-        }
-    }
-
 }
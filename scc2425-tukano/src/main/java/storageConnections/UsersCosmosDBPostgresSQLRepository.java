@@ -10,44 +10,33 @@ import static tukano.api.Result.ErrorCode.FORBIDDEN;
 import java.util.List;
 import java.util.concurrent.Executors;
 
-import redis.clients.jedis.Jedis;
 import tukano.api.Result;
 import tukano.api.User;
 import tukano.impl.JavaBlobs;
 import tukano.impl.Token;
 import utils.DB;
 import tukano.impl.JavaShorts;
-import utils.JSON;
 
 public class UsersCosmosDBPostgresSQLRepository implements UsersRepository {
 
-    private static final String USER_CACHE_PREFIX = "user:";
+    private final CacheFamily<User> cachedUsers = Caches.users();
 
     public UsersCosmosDBPostgresSQLRepository() {}
 
     @Override
     public Result<String> createUser(User user) {
-        return errorOrValue( DB.insertOne( user), user.getid() );
+        Result<String> res = errorOrValue( DB.insertOne( user), user.getid() );
+        if (res.isOK())
+            cachedUsers.invalidate(user.getid());
+
+        return res;
     }
 
     @Override
     public Result<User> getUser(String userId, String pwd) {
+        Result<User> user = cachedUsers.get(userId, () -> DB.getOne( userId, User.class));
 
-        User user = getCachedUser(userId);
-        if (user != null && user.getPwd().equals(pwd)) {
-            return ok(user);
-        } else if (user != null && !user.getPwd().equals(pwd)) {
-            return Result.error(FORBIDDEN);
-        }
-
-        Result<User> userResult = validatedUserOrError( DB.getOne( userId, User.class), pwd);
-
-        if (userResult.isOK()) {
-            cacheUser(userResult.value());
-            System.out.println("User cached successfully.");
-        }
-
-        return userResult;
+        return validatedUserOrError(user, pwd);
     }
 
     @Override
@@ -55,8 +44,9 @@ public class UsersCosmosDBPostgresSQLRepository implements UsersRepository {
 
         Result<User> resUser = errorOrResult( validatedUserOrError(DB.getOne( userId, User.class), pwd), user -> DB.updateOne( user.updateFrom(other)));
 
-        if (resUser.isOK())
-            cacheUser(resUser.value());
+        if (resUser.isOK()) {
+            cachedUsers.put(userId, resUser.value());
+        }
 
         return resUser;
     }
@@ -72,7 +62,7 @@ public class UsersCosmosDBPostgresSQLRepository implements UsersRepository {
             Result<User> userResult = DB.deleteOne( user);
 
             if (userResult.isOK()){
-                removeCachedUser(userId);
+                cachedUsers.invalidate(userId);
             }
 
             return userResult;
@@ -98,23 +88,4 @@ public class UsersCosmosDBPostgresSQLRepository implements UsersRepository {
         else
             return res;
     }
-
-    private void cacheUser(User user) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set(USER_CACHE_PREFIX + user.getid(), JSON.encode(user));
-        }
-    }
-
-    private User getCachedUser(String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String userJson = jedis.get(USER_CACHE_PREFIX + userId);
-            return userJson != null ? JSON.decode(userJson, User.class) : null;
-        }
-    }
-
-    private void removeCachedUser(String userId) {
-        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.del(USER_CACHE_PREFIX + userId);
-        }
-    }
 }
\ No newline at end of file
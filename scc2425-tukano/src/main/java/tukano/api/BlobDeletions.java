@@ -0,0 +1,13 @@
+package tukano.api;
+
+import java.util.List;
+
+/**
+ * Outcome of deleting all the blobs of a user.
+ * 
+ * @param listed  the number of blobs found in storage
+ * @param deleted the number of blobs deleted
+ * @param failed  the ids of the blobs that could not be deleted, after retrying
+ */
+public record BlobDeletions(int listed, int deleted, List<String> failed) {
+}
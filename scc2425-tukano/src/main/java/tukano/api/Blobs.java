@@ -1,5 +1,8 @@
 package tukano.api;
 
+import java.io.InputStream;
+import java.util.List;
+
 /**
  * Interface of blob service for storing short videos media ...
  */
@@ -14,23 +17,89 @@ public interface Blobs {
 	 * 
 	 * @param String blobId the identifier generated by the Shorts service for this
 	 *               blob
-	 * @param bytes  the contents in bytes of the blob resource
+	 * @param data   the contents of the blob resource, streamed; it is consumed
+	 *               and closed by the upload
+	 * @param checksum the hex SHA-256 of the contents, as computed by the client, or null
 	 * 
 	 * @return OK(void) if the upload is new or if the blobId and bytes match an
 	 *         existing blob;
 	 *         CONFLICT if a blobId exists but bytes do not match;
+	 *         BAD_REQUEST if the contents do not match the checksum;
+	 *         FORBIDDEN if the blobId is not valid
+	 */
+	Result<Void> upload(String blobId, InputStream data, String checksum, String token);
+
+	/**
+	 * Starts a multipart upload of a short video blob resource. Its parts can then be
+	 * uploaded independently, in any order and in parallel, and retried on failure.
+	 * 
+	 * @param blobId the identifier generated by the Shorts service for this blob
+	 * @return (OK, uploadId), identifying the upload in the following calls;
 	 *         FORBIDDEN if the blobId is not valid
 	 */
-	Result<Void> upload(String blobId, byte[] bytes, String token);
+	Result<String> initiateUpload(String blobId, String token);
+
+	/**
+	 * Uploads one part of a multipart upload. Uploading a part again replaces it.
+	 * 
+	 * @param part     the number of the part, from 0
+	 * @param data     the contents of the part, streamed
+	 * @param checksum the hex SHA-256 of the part, as computed by the client, or null
+	 * @return OK(void) if the part was staged;
+	 *         BAD_REQUEST if the contents do not match the checksum or the part is too large;
+	 *         NOT_FOUND if the upload does not exist or has expired
+	 */
+	Result<Void> uploadPart(String blobId, String uploadId, int part, InputStream data, String checksum, String token);
+
+	/**
+	 * Completes a multipart upload, assembling the blob from the given parts, in order.
+	 * 
+	 * @return OK(void) if the blob was stored;
+	 *         BAD_REQUEST if a part was not uploaded;
+	 *         CONFLICT if a blob with the blobId already exists;
+	 *         NOT_FOUND if the upload does not exist or has expired
+	 */
+	Result<Void> completeUpload(String blobId, String uploadId, List<Integer> parts, String token);
+
+	/**
+	 * Abandons a multipart upload, discarding the parts uploaded so far.
+	 * 
+	 * @return OK(void), if the upload existed;
+	 *         NOT_FOUND if the upload does not exist or has expired
+	 */
+	Result<Void> abortUpload(String blobId, String uploadId, String token);
+
+	/**
+	 * Downloads a short video blob resource as a stream, so it can be relayed
+	 * to the client in chunks. The caller must close the stream.
+	 * 
+	 * @param blobId the id of the blob;
+	 * @return (OK, stream), if the blob exists;
+	 * 			 NOT_FOUND, if no blob matches the provided blobId
+	 */
+	Result<InputStream> download(String blobId, String token);
+
+	/**
+	 * Downloads part of a short video blob resource, reading only the requested
+	 * byte range from storage.
+	 * 
+	 * @param blobId the id of the blob;
+	 * @param offset the position of the first byte to read;
+	 * @param length the number of bytes to read;
+	 * @return (OK, stream), if the blob exists;
+	 * 			 NOT_FOUND, if no blob matches the provided blobId
+	 * 			 BAD_REQUEST, if the range is negative
+	 */
+	Result<InputStream> download(String blobId, long offset, long length, String token);
 
 	/**
-	 * Downloads a short video blob resource in a single byte chunk of bytes.
+	 * Obtains the size of a short video blob resource.
 	 * 
 	 * @param blobId the id of the blob;
-	 * @return (OK, bytes), if the blob exists;
+	 * @return (OK, size in bytes), if the blob exists;
 	 * 			 NOT_FOUND, if no blob matches the provided blobId
 	 */
-	Result<byte[]> download(String blobId, String token);
+	Result<Long> size(String blobId, String token);
 
 
 	/**
@@ -44,9 +113,11 @@ public interface Blobs {
 	
 
 	/**
-	 * Deletes all short video blob resources from a given userId.
+	 * Deletes all short video blob resources from a given userId, ie. all blobs
+	 * whose id starts with "userId:".
 	 * 
 	 * @param userid the id of the owner of the blobs;
+	 * @return (OK, summary), reporting the blobs that could not be deleted, if any
 	 */
-	Result<Void> deleteAllBlobs( String userId, String token );
+	Result<BlobDeletions> deleteAllBlobs( String userId, String token );
 }
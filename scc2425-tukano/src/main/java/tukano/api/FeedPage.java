@@ -0,0 +1,12 @@
+package tukano.api;
+
+import java.util.List;
+
+/**
+ * A page of the feed of a user.
+ * 
+ * @param shorts the ids of the shorts in the page, newest first
+ * @param next   the cursor to request the following page with, or null if there are no more shorts
+ */
+public record FeedPage(List<String> shorts, String next) {
+}
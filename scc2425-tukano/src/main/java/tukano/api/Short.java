@@ -2,6 +2,7 @@ package tukano.api;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import tukano.impl.Token;
 
@@ -15,7 +16,7 @@ import tukano.impl.Token;
  *
  */
 @Entity
-@Table(name = "shorts")
+@Table(name = "shorts", indexes = @Index(columnList = "ownerId, timestamp DESC, id DESC"))
 public class Short {
 	
 	@Id
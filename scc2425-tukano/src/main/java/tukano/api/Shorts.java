@@ -109,18 +109,34 @@ public interface Shorts {
 	 */
 	Result<List<String>> likes(String shortId, String password);
 
+	/**
+	 * Tells if a user likes a short
+	 * 
+	 * @param shortId the identifier of the short
+	 * @param userId the identifier of the user
+	 * @param password the password of the user
+	 * @return (OK,Boolean), 
+	 * NOT_FOUND if there is no Short with the given shortId
+	 * FORBIDDEN if the password is incorrect
+	 */
+	Result<Boolean> liked(String shortId, String userId, String password);
+
 
 	/**
-	 * Returns the feed of the user, sorted by age. The feed is the list of shorts made by
-	 * the users followed by the user.
+	 * Returns a page of the feed of the user, sorted by age. The feed is the list of shorts made by
+	 * the user and by the users followed by the user.
 	 * 
 	 * @param userId user of the requested feed
 	 * @param password the password of the user
-	 * @return (OK,List<PostId>|empty list)
+	 * @param limit the maximum number of shorts in the page, or null for the default
+	 * @param cursor the cursor of the previous page, as returned with it, or null for the first page
+	 * @param since if not null, only shorts newer than this timestamp are returned
+	 * @return (OK,FeedPage)
 	 * 	NOT_FOUND if the user does not exists
 	 *  FORBIDDEN if the password is incorrect
+	 *  BAD_REQUEST if the limit or the cursor are invalid
 	 */
-	Result<List<String>> getFeed(String userId, String password);
+	Result<FeedPage> getFeed(String userId, String password, Integer limit, String cursor, Long since);
 
 	Result<Void> deleteAllShorts(String userId, String password, String token);
 }
@@ -1,15 +1,24 @@
 package tukano.api.rest;
 
 
+import java.io.InputStream;
+import java.util.List;
+
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HEAD;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import tukano.api.BlobDeletions;
 
 @Path(RestBlobs.PATH)
 public interface RestBlobs {
@@ -19,18 +28,54 @@ public interface RestBlobs {
 	String TOKEN = "token";
 	String BLOBS = "blobs";
 	String USER_ID = "userId";
+	String RANGE = HttpHeaders.RANGE;
+	String ACCEPT_RANGES = "Accept-Ranges";
+	String CONTENT_RANGE = "Content-Range";
+	String BYTES = "bytes";
+	String UPLOADS = "uploads";
+	String UPLOAD_ID = "uploadId";
+	String PART = "part";
+	String CHECKSUM = "X-Content-SHA256";
 
  	@POST
  	@Path("/{" + BLOB_ID +"}")
  	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
-	void upload(@PathParam(BLOB_ID) String blobId, byte[] bytes, @QueryParam(TOKEN) String token);
+	void upload(@PathParam(BLOB_ID) String blobId, InputStream data, @HeaderParam(CHECKSUM) String checksum, @QueryParam(TOKEN) String token);
+
+
+	@POST
+	@Path("/{" + BLOB_ID + "}/" + UPLOADS)
+	@Produces(MediaType.APPLICATION_JSON)
+	String initiateUpload(@PathParam(BLOB_ID) String blobId, @QueryParam(TOKEN) String token);
+
+	@PUT
+	@Path("/{" + BLOB_ID + "}/" + UPLOADS + "/{" + UPLOAD_ID + "}/{" + PART + "}")
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	void uploadPart(@PathParam(BLOB_ID) String blobId, @PathParam(UPLOAD_ID) String uploadId, @PathParam(PART) int part,
+			InputStream data, @HeaderParam(CHECKSUM) String checksum, @QueryParam(TOKEN) String token);
+
+	@POST
+	@Path("/{" + BLOB_ID + "}/" + UPLOADS + "/{" + UPLOAD_ID + "}")
+	@Consumes(MediaType.APPLICATION_JSON)
+	void completeUpload(@PathParam(BLOB_ID) String blobId, @PathParam(UPLOAD_ID) String uploadId, List<Integer> parts, @QueryParam(TOKEN) String token);
+
+	@DELETE
+	@Path("/{" + BLOB_ID + "}/" + UPLOADS + "/{" + UPLOAD_ID + "}")
+	void abortUpload(@PathParam(BLOB_ID) String blobId, @PathParam(UPLOAD_ID) String uploadId, @QueryParam(TOKEN) String token);
 
 
  	@GET
  	@Path("/{" + BLOB_ID +"}") 	
  	@Produces(MediaType.APPLICATION_OCTET_STREAM)
- 	byte[] download(@PathParam(BLOB_ID) String blobId, @QueryParam(TOKEN) String token);
+ 	Response download(@PathParam(BLOB_ID) String blobId, @HeaderParam(RANGE) String range, @QueryParam(TOKEN) String token);
  	
+	/**
+	 * Answers with the size of the blob in Content-Length, without reading it.
+	 */
+	@HEAD
+	@Path("/{" + BLOB_ID + "}")
+	Response size(@PathParam(BLOB_ID) String blobId, @QueryParam(TOKEN) String token);
+
  	
 	@DELETE
 	@Path("/{" + BLOB_ID + "}")
@@ -38,5 +83,6 @@ public interface RestBlobs {
 
 	@DELETE
 	@Path("/{" + USER_ID + "}/" + BLOBS)
-	void deleteAllBlobs(@PathParam(USER_ID) String userId, @QueryParam(TOKEN) String token );		
+	@Produces(MediaType.APPLICATION_JSON)
+	BlobDeletions deleteAllBlobs(@PathParam(USER_ID) String userId, @QueryParam(TOKEN) String token );		
 }
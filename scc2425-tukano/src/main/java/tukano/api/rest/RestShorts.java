@@ -11,6 +11,7 @@ import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
+import tukano.api.FeedPage;
 import tukano.api.Short;
 
 @Path(RestShorts.PATH)
@@ -28,6 +29,9 @@ public interface RestShorts {
 	String LIKES = "/likes";
 	String SHORTS = "/shorts";
 	String FOLLOWERS = "/followers";
+	String LIMIT = "limit";
+	String CURSOR = "cursor";
+	String SINCE = "since";
 	
 	@POST
 	@Path("/{" + USER_ID + "}")
@@ -68,10 +72,16 @@ public interface RestShorts {
 	@Produces(MediaType.APPLICATION_JSON)
 	List<String> likes(@PathParam(SHORT_ID) String shortId, @QueryParam(PWD) String password);
 
+	@GET
+	@Path("/{" + SHORT_ID + "}/{" + USER_ID + "}" + LIKES )
+	@Produces(MediaType.APPLICATION_JSON)
+	boolean liked(@PathParam(SHORT_ID) String shortId, @PathParam(USER_ID) String userId, @QueryParam(PWD) String password);
+
 	@GET
 	@Path("/{" + USER_ID + "}" + FEED )
 	@Produces(MediaType.APPLICATION_JSON)
-	List<String> getFeed( @PathParam(USER_ID) String userId, @QueryParam(PWD) String password);
+	FeedPage getFeed( @PathParam(USER_ID) String userId, @QueryParam(PWD) String password,
+			@QueryParam(LIMIT) Integer limit, @QueryParam(CURSOR) String cursor, @QueryParam(SINCE) Long since);
 	
 	@DELETE
 	@Path("/{" + USER_ID + "}" + SHORTS)
@@ -0,0 +1,264 @@
+package tukano.impl;
+
+import static java.lang.String.format;
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import storageConnections.RedisFeeds;
+import storageConnections.RedisFeeds.Entry;
+import storageConnections.RedisFeeds.Slice;
+import storageConnections.ShortsRepository;
+import tukano.api.FeedPage;
+import tukano.api.Result;
+import tukano.api.Short;
+import tukano.impl.data.FeedCursor;
+import utils.JSON;
+import utils.MergeIterator;
+import utils.Props;
+
+/**
+ * Delivers the feeds of users, mixing push and pull.
+ *
+ * Shorts of ordinary owners are pushed to the precomputed feeds of their followers when
+ * created. Shorts of owners with at least FEED_PULL_THRESHOLD followers are only added to
+ * the index of their owner, and merged into the feeds of the followers as these are read,
+ * so posting costs the same whatever the number of followers. Which owners are pulled
+ * follows their live follower counts; an owner is pushed again once its count drops below
+ * half the threshold, so owners near it do not flip back and forth, and its shorts are
+ * then merged into the feeds of its followers.
+ */
+public class FeedEngine {
+	private static final Logger Log = Logger.getLogger(FeedEngine.class.getName());
+
+	private final ShortsRepository repository;
+	private final RedisFeeds feeds;
+	private final long pullThreshold;
+
+	FeedEngine(ShortsRepository repository) {
+		this.repository = repository;
+		this.feeds = new RedisFeeds();
+		this.pullThreshold = Long.parseLong(Props.get("FEED_PULL_THRESHOLD", "10000"));
+	}
+
+	public void created(Short shrt) {
+		var ownerId = shrt.getOwnerId();
+		feeds.push(shrt, isPulled(ownerId) ? List.of(ownerId) : audience(ownerId));
+	}
+
+	public void deleted(Short shrt) {
+		var ownerId = shrt.getOwnerId();
+		feeds.remove(shrt, isPulled(ownerId) ? List.of(ownerId) : audience(ownerId));
+	}
+
+	public void followed(String follower, String followee, boolean isFollowing) {
+		var count = feeds.adjustFollowerCount(followee, isFollowing ? 1 : -1);
+		var pulled = classify(followee, count != null ? count : countFollowers(followee));
+
+		if (!isFollowing) {
+			feeds.removeFollowee(followee, List.of(follower));
+			feeds.removeOwner(followee, List.of(follower));
+		} else if (pulled)
+			feeds.addFollowee(follower, followee);
+		else if (!feeds.follow(follower, followee)) {
+			rebuildIndex(followee);
+			if (!feeds.follow(follower, followee))
+				feeds.invalidate(List.of(follower));
+		}
+	}
+
+	/**
+	 * Drops the shorts of a deleted user from the feeds of its followers.
+	 */
+	public void deleted(String userId, List<String> followers, List<String> followees) {
+		feeds.removeOwner(userId, followers);
+		feeds.removeFollowee(userId, followers);
+		for (var followee : followees)
+			feeds.adjustFollowerCount(followee, -1);
+		feeds.drop(userId);
+	}
+
+	/**
+	 * Returns up to limit shorts of the feed of a user, that come after a cursor (if not null)
+	 * and are newer than since.
+	 */
+	public Result<FeedPage> feed(String userId, FeedCursor after, long since, int limit) {
+		// refreshes of the first page are served from the cache, while the feed is unchanged
+		var cacheName = "limit=" + limit;
+		var cached = after == null && since <= 0 ? feeds.cachedPage(userId, cacheName) : null;
+		if (cached != null && cached.page() != null) {
+			var page = JSON.decode(cached.page(), FeedPage.class);
+			if (page != null)
+				return ok(page);
+		}
+
+		// one more than asked tells if there is a next page
+		int count = limit + 1;
+
+		Slice feed;
+		Set<String> pulled;
+
+		var timeline = feeds.feed(userId, after, since, count);
+		if (timeline != null) {
+			feed = timeline.feed();
+			pulled = timeline.pulled();
+		} else {
+			var res = repository.getFeed(userId, null, 0, feeds.maxLength());
+			if (!res.isOK())
+				return error(res.error());
+
+			feeds.rebuildFeed(userId, res.value());
+			feed = feeds.slice(res.value(), after, since, count);
+			pulled = null;
+		}
+
+		if (pulled == null) {
+			var followees = repository.followees(userId);
+			if (!followees.isOK())
+				return error(followees.error());
+
+			feeds.rebuildFollowees(userId, followees.value());
+			pulled = feeds.pulledFollowees(userId);
+		}
+		var owners = pulled != null ? pulled : Set.<String>of();
+
+		var slices = new ArrayList<Slice>();
+		slices.add(feed);
+		var timelines = new ArrayList<Iterator<Entry>>();
+
+		if (owners.isEmpty())
+			timelines.add(feed.entries().iterator());
+		else {
+			// shorts of pulled owners found in the feed may be stale, so their indexes replace them
+			timelines.add(feed.entries().stream().filter(entry -> !owners.contains(entry.ownerId())).iterator());
+
+			var indexes = feeds.indexes(owners, after, since, count);
+			for (var ownerId : owners) {
+				var index = indexes.get(ownerId);
+				if (index == null)
+					index = rebuildIndex(ownerId, after, since, count);
+				slices.add(index);
+				timelines.add(index.entries().iterator());
+			}
+		}
+		var merged = new ArrayList<>(MergeIterator.topK(timelines, Entry.NEWEST_FIRST, count));
+
+		if (!exact(merged, slices, count)) {
+			var res = repository.getFeed(userId, after, since, count);
+			if (!res.isOK())
+				return error(res.error());
+
+			merged.clear();
+			res.value().forEach(shrt -> merged.add(new Entry(shrt)));
+		}
+		var page = page(merged, limit);
+		if (cached != null)
+			feeds.cachePage(userId, cacheName, cached.stamp(), JSON.encode(page));
+
+		return ok(page);
+	}
+
+	/**
+	 * Tells if the first count merged shorts are the first count shorts of the feed. They might
+	 * not be if a truncated timeline ran out before them, as it may be missing older shorts.
+	 */
+	private static boolean exact(List<Entry> merged, List<Slice> slices, int count) {
+		for (var slice : slices) {
+			if (!slice.truncated())
+				continue;
+			if (merged.size() < count || slice.entries().isEmpty())
+				return false;
+
+			var last = slice.entries().get(slice.entries().size() - 1);
+			if (Entry.NEWEST_FIRST.compare(merged.get(count - 1), last) > 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static FeedPage page(List<Entry> entries, int limit) {
+		if (entries.size() <= limit)
+			return new FeedPage(ids(entries), null);
+
+		var last = entries.get(limit - 1);
+		return new FeedPage(ids(entries.subList(0, limit)), new FeedCursor(last.timestamp(), last.shortId()).encode());
+	}
+
+	private boolean isPulled(String ownerId) {
+		var count = feeds.followerCount(ownerId);
+		return count != null ? feeds.isPulled(ownerId) : classify(ownerId, countFollowers(ownerId));
+	}
+
+	/**
+	 * Decides if the shorts of an owner with the given number of followers are pulled.
+	 */
+	private boolean classify(String ownerId, long count) {
+		if (count < 0)
+			return feeds.isPulled(ownerId);
+
+		if (count >= pullThreshold) {
+			if (feeds.setPulled(ownerId, true))
+				Log.info(() -> format("Pulling the shorts of %s, with %d followers\n", ownerId, count));
+			return true;
+		}
+
+		if (count < pullThreshold / 2 && feeds.setPulled(ownerId, false)) {
+			Log.info(() -> format("Pushing the shorts of %s, with %d followers\n", ownerId, count));
+			// shorts created while pulled never reached the feeds of the followers
+			var followers = repository.followers(ownerId);
+			if (followers.isOK() && !feeds.backfill(ownerId, followers.value())) {
+				rebuildIndex(ownerId);
+				feeds.backfill(ownerId, followers.value());
+			}
+			return false;
+		}
+
+		return feeds.isPulled(ownerId);
+	}
+
+	/**
+	 * Counts the followers of an owner in the database, returning -1 if that fails.
+	 */
+	private long countFollowers(String ownerId) {
+		var followers = repository.followers(ownerId);
+		if (!followers.isOK())
+			return -1;
+
+		feeds.setFollowerCount(ownerId, followers.value().size());
+		return followers.value().size();
+	}
+
+	private Slice rebuildIndex(String ownerId, FeedCursor after, long since, int count) {
+		var recent = repository.recentShorts(ownerId, null, 0, feeds.maxLength());
+		if (!recent.isOK())
+			return new Slice(List.of(), true);
+
+		feeds.rebuildIndex(ownerId, recent.value());
+		return feeds.slice(recent.value(), after, since, count);
+	}
+
+	private void rebuildIndex(String ownerId) {
+		rebuildIndex(ownerId, null, 0, 0);
+	}
+
+	/**
+	 * The users whose feeds include the shorts of an owner: their followers and the owner.
+	 */
+	private List<String> audience(String ownerId) {
+		var users = new ArrayList<String>();
+		var followers = repository.followers(ownerId);
+		if (followers.isOK())
+			users.addAll(followers.value());
+		users.add(ownerId);
+		return users;
+	}
+
+	private static List<String> ids(List<Entry> entries) {
+		return entries.stream().map(Entry::shortId).toList();
+	}
+}
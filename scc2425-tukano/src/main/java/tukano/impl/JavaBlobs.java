@@ -8,31 +8,58 @@ import static tukano.api.Result.ok;
 
 import jakarta.ws.rs.NotAuthorizedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
-import com.azure.core.util.BinaryData;
-import com.azure.storage.blob.BlobClient;
-import com.azure.storage.blob.BlobContainerClient;
-import com.azure.storage.blob.BlobContainerClientBuilder;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.exceptions.JedisException;
 import srv.Session;
+import storageConnections.OffHeapBlobCache;
+import storageConnections.RedisBlobCache;
 import storageConnections.RedisCache;
+import tukano.api.BlobDeletions;
 import tukano.api.Blobs;
 import tukano.api.Result;
-import utils.Hash;
+import tukano.impl.storage.AzureBlobStorage;
+import tukano.impl.storage.BlobStorage;
+import tukano.impl.storage.ContentAddressedStorage;
+import tukano.impl.storage.FilesystemStorage;
+import utils.CapturingInputStream;
 import utils.Hex;
-import utils.JSON;
+import utils.Props;
+import utils.Sha256InputStream;
+import utils.Sleep;
 
 public class JavaBlobs implements Blobs {
 	
 	private static Blobs instance;
 	private static final Logger Log = Logger.getLogger(JavaBlobs.class.getName());
-	private static final String BYTES_CACHE_PREFIX = "bytes:";
-	private static final String BlobStoreConnection = System.getProperty("BlobStoreConnection");
 
-	private final BlobContainerClient containerClient;
+	private static final String UPLOAD_PREFIX = "upload:";
+	private static final String UPLOAD_BLOB_ID = "blobId";
+	private static final String UPLOAD_PART = "part:";
+	private static final long UPLOAD_TTL = 24 * 3600;
+	private static final int DELETE_PARALLELISM = 16;
+	private static final int DELETE_QUEUE = 1024;
+	private static final int DELETE_ATTEMPTS = 3;
+	private static final int DELETE_RETRY_SLEEP = 100;
+
+	private final BlobStorage storage;
+	private final OffHeapBlobCache l1;
+	private final RedisBlobCache cache;
+	private final ExecutorService deletions;
 
 	synchronized public static Blobs getInstance() {
 		if( instance == null )
@@ -41,15 +68,46 @@ public class JavaBlobs implements Blobs {
 	}
 	
 	private JavaBlobs() {
-		containerClient = new BlobContainerClientBuilder()
-				.connectionString(BlobStoreConnection)
-				.containerName(Blobs.NAME)
-				.buildClient();
+		var backend = storageFromConfig();
+		storage = Boolean.parseBoolean(Props.get("BLOB_DEDUP", "false")) ? new ContentAddressedStorage(backend) : backend;
+		l1 = OffHeapBlobCache.getInstance();
+		cache = new RedisBlobCache();
+
+		// Shared by every deleteAllBlobs; when its queue is full, callers delete their blobs themselves
+		var pool = new ThreadPoolExecutor(DELETE_PARALLELISM, DELETE_PARALLELISM, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(DELETE_QUEUE), r -> {
+					var thread = new Thread(r, "blob-deleter");
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		deletions = pool;
+	}
+
+	/**
+	 * BLOB_STORAGE_TYPE selects the backend: AZURE (default), FS (local filesystem, rooted
+	 * at BLOB_STORAGE_DIR) or the fully qualified name of any other BlobStorage class.
+	 * With BLOB_DEDUP=true, identical contents are stored once (see ContentAddressedStorage).
+	 */
+	private static BlobStorage storageFromConfig() {
+		String storageType = Props.get("BLOB_STORAGE_TYPE", "AZURE");
+
+		if (storageType.equals("AZURE"))
+			return new AzureBlobStorage();
+
+		if (storageType.equals("FS"))
+			return new FilesystemStorage(Props.get("BLOB_STORAGE_DIR", FilesystemStorage.DEFAULT_ROOT_DIR));
+
+		try {
+			return (BlobStorage) Class.forName(storageType).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("Invalid BLOB_STORAGE_TYPE: " + storageType, e);
+		}
 	}
 	
 	@Override
-	public Result<Void> upload(String blobId, byte[] bytes, String token) {
-		Log.info(() -> format("upload : blobId = %s, sha256 = %s, token = %s\n", blobId, Hex.of(Hash.sha256(bytes)), token));
+	public Result<Void> upload(String blobId, InputStream data, String checksum, String token) {
+		Log.info(() -> format("upload : blobId = %s, checksum = %s, token = %s\n", blobId, checksum, token));
 
 		String userID = blobId.split(":")[0];
 		try {
@@ -61,41 +119,52 @@ public class JavaBlobs implements Blobs {
 		if (!validBlobId(blobId, token))
 			return error(FORBIDDEN);
 
+		// Only blobs small enough to be cached are kept in memory while they stream to storage
+		var capture = new CapturingInputStream(data, cache.maxSize());
+		// Hashed once, while streaming to storage, which keeps the hash along with the blob
+		var hashing = new Sha256InputStream(capture, checksum);
+
+		var res = verified(hashing, () -> storage.write(blobId, hashing));
+		if (res.isOK()) {
+			var bytes = capture.captured();
+			var key = storage.contentKey(blobId);
+			if (bytes != null && cache.admit(key))
+				cache.put(key, bytes);
+			Log.info(() -> format("Blob uploaded: blobId = %s, sha256 = %s", blobId, hashing.sha256() != null ? Hex.of(hashing.sha256()) : "-"));
+		} else
+			Log.warning(() -> format("Blob upload failed: blobId = %s, error = %s", blobId, res.error()));
+
+		return res;
+	}
+
+	@Override
+	public Result<String> initiateUpload(String blobId, String token) {
+		Log.info(() -> format("initiateUpload : blobId = %s, token = %s\n", blobId, token));
+
+		String userID = blobId.split(":")[0];
 		try {
-			BinaryData data = BinaryData.fromBytes(bytes);
-
-			BlobClient blobClient = containerClient.getBlobClient(blobId);
-
-			if (blobClient.exists()) {
-				byte[] existingBytes = blobClient.downloadContent().toBytes();
-
-				// Compare the hashes of the existing blob and new bytes
-				String existingHash = Hex.of(Hash.sha256(existingBytes));
-				String newHash = Hex.of(Hash.sha256(bytes));
-
-				if (existingHash.equals(newHash)) {
-					Log.info(() -> format("Blob already exists and matches: blobId = %s", blobId));
-					return Result.ok();
-				} else {
-					Log.warning(() -> format("Conflict: Blob exists but content differs: blobId = %s", blobId));
-					return error(CONFLICT);
-				}
-			} else {
-				blobClient.upload(data);
-				cacheBytes(blobId, data);
-				Log.info(() -> format("New blob uploaded: blobId = %s", blobId));
-				return Result.ok();
-			}
+			Session s = validateSession(userID);
+		} catch (NotAuthorizedException e) {
+			return error(UNAUTHORIZED);
+		}
+
+		if (!validBlobId(blobId, token))
+			return error(FORBIDDEN);
 
-		} catch (Exception e) {
-			e.printStackTrace();
+		var uploadId = UUID.randomUUID().toString();
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.hset(UPLOAD_PREFIX + uploadId, UPLOAD_BLOB_ID, blobId);
+			jedis.expire(UPLOAD_PREFIX + uploadId, UPLOAD_TTL);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to start upload: " + e.getMessage());
 			return error(INTERNAL_ERROR);
 		}
+		return ok(uploadId);
 	}
 
 	@Override
-	public Result<byte[]> download(String blobId, String token) {
-		Log.info(() -> format("download : blobId = %s, token=%s\n", blobId, token));
+	public Result<Void> uploadPart(String blobId, String uploadId, int part, InputStream data, String checksum, String token) {
+		Log.info(() -> format("uploadPart : blobId = %s, uploadId = %s, part = %d, token = %s\n", blobId, uploadId, part, token));
 
 		String userID = blobId.split(":")[0];
 		try {
@@ -104,39 +173,87 @@ public class JavaBlobs implements Blobs {
 			return error(UNAUTHORIZED);
 		}
 
-		if( ! validBlobId( blobId, token ) )
+		if (!validBlobId(blobId, token))
 			return error(FORBIDDEN);
 
-		try {
+		if (part < 0)
+			return error(BAD_REQUEST);
 
-			BinaryData cachedBytes = getCachedBytes(blobId);
-			if (cachedBytes != null) {
-				return ok(cachedBytes.toBytes());
-			}
+		// The part body streams in for as long as the client takes, so no pooled connection is held meanwhile
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			if (!blobId.equals(jedis.hget(UPLOAD_PREFIX + uploadId, UPLOAD_BLOB_ID)))
+				return error(NOT_FOUND);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to find upload: " + e.getMessage());
+			return error(INTERNAL_ERROR);
+		}
 
-			byte[] arr;
+		var hashing = new Sha256InputStream(data, checksum);
+		var res = verified(hashing, () -> storage.writePart(blobId, uploadId, part, hashing));
+		if (!res.isOK()) {
+			Log.warning(() -> format("Part not staged: blobId = %s, uploadId = %s, part = %d, error = %s", blobId, uploadId, part, res.error()));
+			return res;
+		}
 
-			BlobClient blobClient = containerClient.getBlobClient(blobId);
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.hset(UPLOAD_PREFIX + uploadId, UPLOAD_PART + part, Hex.of(hashing.sha256()));
+			jedis.expire(UPLOAD_PREFIX + uploadId, UPLOAD_TTL);
+			return ok();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to record part: " + e.getMessage());
+			return error(INTERNAL_ERROR);
+		}
+	}
 
-			if (blobClient.exists()) {
-				arr = blobClient.downloadContent().toBytes();
+	@Override
+	public Result<Void> completeUpload(String blobId, String uploadId, List<Integer> parts, String token) {
+		Log.info(() -> format("completeUpload : blobId = %s, uploadId = %s, parts = %s, token = %s\n", blobId, uploadId, parts, token));
 
-				Log.info(() -> format("Blob found and downloaded: blobId = %s, size = %d bytes", blobId, arr.length));
-				return Result.ok(arr);
-			} else {
-				Log.warning(() -> format("Blob not found: blobId = %s", blobId));
+		String userID = blobId.split(":")[0];
+		try {
+			Session s = validateSession(userID);
+		} catch (NotAuthorizedException e) {
+			return error(UNAUTHORIZED);
+		}
+
+		if (!validBlobId(blobId, token))
+			return error(FORBIDDEN);
+
+		if (parts == null || parts.isEmpty())
+			return error(BAD_REQUEST);
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var upload = jedis.hgetAll(UPLOAD_PREFIX + uploadId);
+			if (!blobId.equals(upload.get(UPLOAD_BLOB_ID)))
 				return error(NOT_FOUND);
-			}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+			for (var part : parts)
+				if (!upload.containsKey(UPLOAD_PART + part))
+					return error(BAD_REQUEST);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to complete upload: " + e.getMessage());
 			return error(INTERNAL_ERROR);
 		}
+
+		var res = storage.commitParts(blobId, uploadId, parts);
+		if (!res.isOK()) {
+			Log.warning(() -> format("Blob upload failed: blobId = %s, error = %s", blobId, res.error()));
+			return res;
+		}
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.del(UPLOAD_PREFIX + uploadId);
+		} catch (JedisException e) {
+			// The upload record expires on its own
+			Log.warning("Redis access failed, unable to discard upload: " + e.getMessage());
+		}
+		Log.info(() -> format("Blob uploaded: blobId = %s, parts = %d", blobId, parts.size()));
+		return res;
 	}
 
 	@Override
-	public Result<Void> delete(String blobId, String token) {
-		Log.info(() -> format("delete : blobId = %s, token=%s\n", blobId, token));
+	public Result<Void> abortUpload(String blobId, String uploadId, String token) {
+		Log.info(() -> format("abortUpload : blobId = %s, uploadId = %s, token = %s\n", blobId, uploadId, token));
 
 		String userID = blobId.split(":")[0];
 		try {
@@ -145,95 +262,237 @@ public class JavaBlobs implements Blobs {
 			return error(UNAUTHORIZED);
 		}
 
-		if (!validBlobId(blobId, token)) {
+		if (!validBlobId(blobId, token))
 			return error(FORBIDDEN);
-		}
 
-		try {
-			BlobClient blob = containerClient.getBlobClient(blobId);
-
-			if (blob.exists()) {
-				blob.delete();
-				removeCachedBytes(blobId);
-				Log.info(() -> format("Blob deleted: %s", blobId));
-				return Result.ok();
-			} else {
-				Log.warning(() -> format("Blob not found: %s", blobId));
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var upload = jedis.hgetAll(UPLOAD_PREFIX + uploadId);
+			if (!blobId.equals(upload.get(UPLOAD_BLOB_ID)))
 				return error(NOT_FOUND);
-			}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+			var parts = upload.keySet().stream()
+					.filter(field -> field.startsWith(UPLOAD_PART))
+					.map(field -> Integer.valueOf(field.substring(UPLOAD_PART.length())))
+					.toList();
+
+			storage.abortParts(blobId, uploadId, parts);
+			jedis.del(UPLOAD_PREFIX + uploadId);
+			return ok();
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to abort upload: " + e.getMessage());
 			return error(INTERNAL_ERROR);
 		}
 	}
 
 	@Override
-	public Result<Void> deleteAllBlobs(String userId, String token) {
-		Log.info(() -> format("deleteAllBlobs : userId = %s, token=%s\n", userId, token));
+	public Result<InputStream> download(String blobId, String token) {
+		Log.info(() -> format("download : blobId = %s, token=%s\n", blobId, token));
 
+		String userID = blobId.split(":")[0];
 		try {
-			Session s = validateSession(userId);
+			Session s = validateSession(userID);
 		} catch (NotAuthorizedException e) {
 			return error(UNAUTHORIZED);
 		}
 
-		List<String> shorts = JavaShorts.getInstance().getShorts(userId).value();
-
-		if (!Token.isValid(token, userId)) {
+		if( ! validBlobId( blobId, token ) )
 			return error(FORBIDDEN);
+
+		var key = storage.contentKey(blobId);
+		var hot = l1.get(key);
+		if (hot != null)
+			return ok(hot);
+
+		var cachedBytes = cache.get(key);
+		if (cachedBytes != null) {
+			l1.put(key, cachedBytes);
+			return ok(new ByteArrayInputStream(cachedBytes));
+		}
+
+		var res = storage.open(blobId);
+		if (!res.isOK()) {
+			Log.warning(() -> format("Blob not available: blobId = %s, error = %s", blobId, res.error()));
+			return res;
 		}
 
-		for (String s: shorts){
-			try {
-				BlobClient blob = containerClient.getBlobClient(s);
+		return ok(filling(key, res.value(), cache.admit(key)));
+	}
 
-				if (blob.exists()) {
-					blob.delete();
-					removeCachedBytes(s);
-					Log.info(() -> format("Blob deleted: %s", s));
-				}
+	@Override
+	public Result<InputStream> download(String blobId, long offset, long length, String token) {
+		Log.info(() -> format("download : blobId = %s, offset = %d, length = %d, token=%s\n", blobId, offset, length, token));
 
-			} catch (Exception e) {
-				e.printStackTrace();
-				return error(INTERNAL_ERROR);
-			}
+		String userID = blobId.split(":")[0];
+		try {
+			Session s = validateSession(userID);
+		} catch (NotAuthorizedException e) {
+			return error(UNAUTHORIZED);
 		}
 
-		return Result.ok();
+		if( ! validBlobId( blobId, token ) )
+			return error(FORBIDDEN);
+
+		if (offset < 0 || length < 0)
+			return error(BAD_REQUEST);
+
+		var key = storage.contentKey(blobId);
+		var hot = l1.get(key, offset, length);
+		if (hot != null)
+			return ok(hot);
+
+		var cachedBytes = cache.get(key, offset, length);
+		if (cachedBytes != null)
+			return ok(new ByteArrayInputStream(cachedBytes));
+
+		return storage.open(blobId, offset, length);
 	}
-	
-	private boolean validBlobId(String blobId, String token) {		
-		return Token.isValid(token, blobId);
+
+	@Override
+	public Result<Long> size(String blobId, String token) {
+		Log.info(() -> format("size : blobId = %s, token=%s\n", blobId, token));
+
+		String userID = blobId.split(":")[0];
+		try {
+			Session s = validateSession(userID);
+		} catch (NotAuthorizedException e) {
+			return error(UNAUTHORIZED);
+		}
+
+		if( ! validBlobId( blobId, token ) )
+			return error(FORBIDDEN);
+
+		return storage.size(blobId);
 	}
 
-	private String toPath(String blobId) {
-		return blobId.replace("+", "/");
+	@Override
+	public Result<Void> delete(String blobId, String token) {
+		Log.info(() -> format("delete : blobId = %s, token=%s\n", blobId, token));
+
+		String userID = blobId.split(":")[0];
+		try {
+			Session s = validateSession(userID);
+		} catch (NotAuthorizedException e) {
+			return error(UNAUTHORIZED);
+		}
+
+		if (!validBlobId(blobId, token)) {
+			return error(FORBIDDEN);
+		}
+
+		var key = storage.contentKey(blobId);
+		var res = storage.delete(blobId);
+		if (res.isOK()) {
+			l1.remove(key);
+			cache.remove(key);
+			Log.info(() -> format("Blob deleted: %s", blobId));
+		} else
+			Log.warning(() -> format("Blob not deleted: %s, error = %s", blobId, res.error()));
+
+		return res;
 	}
 
-	private void cacheBytes(String blobId, BinaryData data){
-		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-			jedis.set(BYTES_CACHE_PREFIX + blobId, JSON.encode(data));
-		} catch (JedisException e) {
-			Log.warning("Failed to cache the bytes in Redis: " + e.getMessage());
+	/**
+	 * The blobs of the user are found by listing the storage for the "userId:" prefix and
+	 * deleted by a pool of DELETE_PARALLELISM threads, shared by all users, each deletion
+	 * retrying up to DELETE_ATTEMPTS times. Cached copies are then dropped with a single
+	 * pipelined Redis request.
+	 */
+	@Override
+	public Result<BlobDeletions> deleteAllBlobs(String userId, String token) {
+		Log.info(() -> format("deleteAllBlobs : userId = %s, token=%s\n", userId, token));
+
+		try {
+			Session s = validateSession(userId);
+		} catch (NotAuthorizedException e) {
+			return error(UNAUTHORIZED);
+		}
+
+		if (!Token.isValid(token, userId)) {
+			return error(FORBIDDEN);
 		}
+
+		var listed = storage.list(userId + ":");
+		if (!listed.isOK())
+			return error(listed.error());
+
+		var blobs = listed.value();
+		var deletedKeys = new ConcurrentLinkedQueue<String>();
+		var failed = new ConcurrentLinkedQueue<String>();
+
+		var tasks = blobs.stream()
+				.map(blobId -> CompletableFuture.runAsync(() -> {
+					var key = storage.contentKey(blobId);
+					if (deleteWithRetries(blobId))
+						deletedKeys.add(key);
+					else
+						failed.add(blobId);
+				}, deletions))
+				.toArray(CompletableFuture[]::new);
+		CompletableFuture.allOf(tasks).join();
+
+		deletedKeys.forEach(l1::remove);
+		cache.removeAll(deletedKeys);
+
+		var summary = new BlobDeletions(blobs.size(), deletedKeys.size(), List.copyOf(failed));
+		Log.info(() -> format("Blobs deleted: userId = %s, %s", userId, summary));
+		return ok(summary);
 	}
 
-	private BinaryData getCachedBytes(String blobId) {
-		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-			String shortJson = jedis.get(BYTES_CACHE_PREFIX + blobId);
-			return shortJson != null ? JSON.decode(shortJson, BinaryData.class) : null;
-		} catch (JedisException e) {
-			Log.warning("Redis access failed, unable to retrieve cached short.");
-			return null;
+	private boolean deleteWithRetries(String blobId) {
+		for (int attempt = 1; attempt <= DELETE_ATTEMPTS; attempt++) {
+			var res = storage.delete(blobId);
+			if (res.isOK() || res.error() == NOT_FOUND)
+				return true;
+
+			Log.warning(() -> format("Blob not deleted: %s, error = %s", blobId, res.error()));
+			Sleep.ms(DELETE_RETRY_SLEEP * attempt);
 		}
+		return false;
 	}
 
-	private void removeCachedBytes(String blobId) {
-		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-			jedis.del(BYTES_CACHE_PREFIX + blobId);
-		} catch (JedisException e) {
-			Log.warning("Failed to remove cached short from Redis: " + e.getMessage());
+
+	/**
+	 * Runs a write of a hashed stream, failing with BAD_REQUEST if its contents did not
+	 * match the checksum sent by the client. A mismatch is detected at the end of the
+	 * stream, before the store commits anything.
+	 */
+	private static Result<Void> verified(Sha256InputStream hashing, Supplier<Result<Void>> write) {
+		Result<Void> res;
+		try {
+			res = write.get();
+		} catch (UncheckedIOException e) {
+			res = error(INTERNAL_ERROR);
 		}
+		return hashing.mismatched() ? error(BAD_REQUEST) : res;
+	}
+
+	/**
+	 * Wraps a stream of the contents of a blob read from storage so that, once it has been
+	 * read to the end and closed, they are cached in this instance and, if admitted, in Redis.
+	 * Streams of blobs too big for either are not copied.
+	 */
+	private InputStream filling(String key, InputStream in, boolean admitted) {
+		var limit = Math.max(l1.maxEntrySize(), admitted ? cache.maxSize() : 0);
+		return new CapturingInputStream(in, (int) Math.min(limit, Integer.MAX_VALUE)) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				var bytes = captured();
+				if (!exhausted() || bytes == null)
+					return;
+
+				l1.put(key, bytes);
+				if (admitted)
+					cache.put(key, bytes);
+			}
+		};
+	}
+
+	private boolean validBlobId(String blobId, String token) {		
+		return Token.isValid(token, blobId);
+	}
+
+	private String toPath(String blobId) {
+		return blobId.replace("+", "/");
 	}
 }
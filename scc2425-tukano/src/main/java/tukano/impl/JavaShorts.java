@@ -8,6 +8,7 @@ import static tukano.api.Result.ok;
 import storageConnections.ShortsCosmosDBNoSQLRepository;
 import storageConnections.ShortsCosmosDBPostgresSQLRepository;
 import storageConnections.ShortsRepository;
+import tukano.api.FeedPage;
 import tukano.api.Result;
 import tukano.api.User;
 
@@ -18,12 +19,17 @@ import java.util.logging.Logger;
 import tukano.api.Blobs;
 import tukano.api.Short;
 import tukano.api.Shorts;
+import tukano.impl.data.FeedCursor;
 
 public class JavaShorts implements Shorts {
 
 	private static final Logger Log = Logger.getLogger(JavaShorts.class.getName());
+	private static final int FEED_PAGE_SIZE = 20;
+	private static final int FEED_MAX_PAGE_SIZE = 100;
 	private static Shorts instance;
 	private final ShortsRepository repository;
+	private final FeedEngine feeds;
+	private final LikeAggregator likes;
 
 
 	synchronized public static Shorts getInstance() {
@@ -40,6 +46,8 @@ public class JavaShorts implements Shorts {
 		} else {
 			this.repository = new ShortsCosmosDBNoSQLRepository();
 		}
+		this.feeds = new FeedEngine(repository);
+		this.likes = new LikeAggregator(repository);
 	}
 	
 	
@@ -60,7 +68,11 @@ public class JavaShorts implements Shorts {
 		else if (!user.isOK())
 			return Result.error(BAD_REQUEST);
 
-		return repository.createShort(shrt);
+		Result<Short> res = repository.createShort(shrt);
+		if (res.isOK())
+			feeds.created(shrt);
+
+		return res;
 	}
 
 	@Override
@@ -70,7 +82,8 @@ public class JavaShorts implements Shorts {
 		if( shortId == null )
 			return error(BAD_REQUEST);
 
-		return repository.getShort(shortId);
+		Result<Short> res = repository.getShort(shortId);
+		return res.isOK() ? ok(likes.withLikes(res.value())) : res;
 	}
 
 	
@@ -87,8 +100,13 @@ public class JavaShorts implements Shorts {
 		if (!user.isOK())
 			return Result.error(FORBIDDEN);
 
-		return repository.deleteShort(shrt.value());
+		Result<Void> res = repository.deleteShort(shrt.value());
+		if (res.isOK()) {
+			feeds.deleted(shrt.value());
+			likes.deleted(shrt.value());
+		}
 
+		return res;
 	}
 
 	@Override
@@ -121,7 +139,11 @@ public class JavaShorts implements Shorts {
 			return Result.error(NOT_FOUND);
 		}
 
-		return repository.follow(userId1, userId2, isFollowing);
+		Result<Void> res = repository.follow(userId1, userId2, isFollowing);
+		if (res.isOK())
+			feeds.followed(userId1, userId2, isFollowing);
+
+		return res;
 	}
 
 	@Override
@@ -160,7 +182,7 @@ public class JavaShorts implements Shorts {
 			return Result.error(NOT_FOUND);
 		}
 
-		return repository.like(userId, isLiked, resShort.value());
+		return likes.like(userId, isLiked, resShort.value());
 	}
 
 	@Override
@@ -179,13 +201,32 @@ public class JavaShorts implements Shorts {
 			return Result.error(BAD_REQUEST);
 		}
 
-		return repository.likes(shortId);
+		return likes.likes(shortId);
+	}
+
+	@Override
+	public Result<Boolean> liked(String shortId, String userId, String password) {
+		Log.info(() -> format("liked : shortId = %s, userId = %s, pwd = %s\n", shortId, userId, password));
+
+		Result<User> user = okUser(userId, password);
+		if (user.error().equals(FORBIDDEN)) {
+			return Result.error(FORBIDDEN);
+		} else if (!user.isOK()) {
+			return Result.error(BAD_REQUEST);
+		}
+
+		Result<Short> shrt = getShort(shortId);
+		if (!shrt.isOK()) {
+			return Result.error(NOT_FOUND);
+		}
+
+		return likes.liked(shortId, userId);
 	}
 
 	//Com os seus shorts ou apenas do que segue
 	@Override
-	public Result<List<String>> getFeed(String userId, String password) {
-		Log.info(() -> format("getFeed : userId = %s, pwd = %s\n", userId, password));
+	public Result<FeedPage> getFeed(String userId, String password, Integer limit, String cursor, Long since) {
+		Log.info(() -> format("getFeed : userId = %s, pwd = %s, limit = %s, cursor = %s, since = %s\n", userId, password, limit, cursor, since));
 
 		Result<User> user = okUser(userId, password);
 		if (user.error().equals(NOT_FOUND)) {
@@ -195,7 +236,18 @@ public class JavaShorts implements Shorts {
 			return Result.error(FORBIDDEN);
 		}
 
-		return repository.getFeed(userId);
+		if (limit != null && limit <= 0)
+			return Result.error(BAD_REQUEST);
+
+		FeedCursor after;
+		try {
+			after = cursor != null ? FeedCursor.decode(cursor) : null;
+		} catch (IllegalArgumentException e) {
+			return Result.error(BAD_REQUEST);
+		}
+
+		int pageSize = limit != null ? Math.min(limit, FEED_MAX_PAGE_SIZE) : FEED_PAGE_SIZE;
+		return feeds.feed(userId, after, since != null ? since : 0, pageSize);
 	}
 
 	protected Result<User> okUser( String userId, String pwd) {
@@ -222,6 +274,17 @@ public class JavaShorts implements Shorts {
 			return Result.error(FORBIDDEN);
 		}
 
-		return repository.deleteAllShorts(userId);
+		// the follows and likes are gone once the user is deleted, so fetch them first
+		var followers = repository.followers(userId);
+		var followees = repository.followees(userId);
+		var liked = repository.likedBy(userId);
+
+		Result<Void> res = repository.deleteAllShorts(userId);
+		if (res.isOK()) {
+			feeds.deleted(userId, followers.isOK() ? followers.value() : List.of(), followees.isOK() ? followees.value() : List.of());
+			likes.deletedUser(userId, liked.isOK() ? liked.value() : List.of());
+		}
+
+		return res;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,213 @@
+package tukano.impl;
+
+import static java.lang.String.format;
+import static tukano.api.Result.ErrorCode.BAD_REQUEST;
+import static tukano.api.Result.ErrorCode.CONFLICT;
+import static tukano.api.Result.ErrorCode.FORBIDDEN;
+import static tukano.api.Result.ErrorCode.NOT_FOUND;
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import storageConnections.RedisLikes;
+import storageConnections.RedisLikes.LikeState;
+import storageConnections.ShortsRepository;
+import tukano.api.Result;
+import tukano.api.Result.ErrorCode;
+import tukano.api.Short;
+import utils.Props;
+
+/**
+ * Takes in likes and unlikes in Redis, and writes them behind to the database.
+ *
+ * A like only changes the likes of its short in Redis, where the number of likes and the users
+ * who like each short are read from. Every LIKES_FLUSH_INTERVAL milliseconds, a background
+ * flusher writes what changed since to the database, up to LIKES_FLUSH_BATCH shorts at a time,
+ * each short in one go, so the rate of likes a short can take is no longer bound by the
+ * latency of writing to the database. Writes that fail are retried by the next flush, unless
+ * they can never succeed (eg. the like of a user deleted meanwhile): those are then written one
+ * user at a time, and the likes that still fail that way are dropped.
+ *
+ * Should Redis be unavailable, likes are written through to the database instead.
+ */
+public class LikeAggregator {
+	private static final Logger Log = Logger.getLogger(LikeAggregator.class.getName());
+
+	private final ShortsRepository repository;
+	private final RedisLikes likes;
+	private final int batchSize;
+	private final ScheduledExecutorService flusher;
+
+	LikeAggregator(ShortsRepository repository) {
+		this.repository = repository;
+		this.likes = new RedisLikes();
+		this.batchSize = Integer.parseInt(Props.get("LIKES_FLUSH_BATCH", "100"));
+
+		var interval = Long.parseLong(Props.get("LIKES_FLUSH_INTERVAL", "1000"));
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "likes-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public Result<Void> like(String userId, boolean isLiked, Short shrt) {
+		var shortId = shrt.getid();
+
+		var state = inRedis(shortId, () -> likes.toggle(shortId, userId, isLiked));
+		if (state == null)
+			return repository.like(userId, isLiked, shrt);
+
+		if (!state.changed())
+			return error(isLiked ? CONFLICT : NOT_FOUND);
+
+		Log.info(() -> format("like : shortId = %s has %d likes", shortId, state.count()));
+		return ok();
+	}
+
+	/**
+	 * Tells if a user likes a short.
+	 */
+	public Result<Boolean> liked(String shortId, String userId) {
+		var state = inRedis(shortId, () -> likes.state(shortId, userId));
+		if (state != null)
+			return ok(state.liked());
+
+		var users = repository.likes(shortId);
+		return users.isOK() ? ok(users.value().contains(userId)) : error(users.error());
+	}
+
+	/**
+	 * Returns the users who like a short.
+	 */
+	public Result<List<String>> likes(String shortId) {
+		var users = likes.users(shortId);
+		if (users != null)
+			return ok(users);
+
+		// built once, the likes are read from Redis from then on
+		var res = repository.likes(shortId);
+		if (res.isOK())
+			likes.build(shortId, res.value());
+		return res;
+	}
+
+	/**
+	 * Returns a short with its number of likes, as taken in so far.
+	 */
+	public Short withLikes(Short shrt) {
+		var count = likes.count(shrt.getid());
+		if (count != null)
+			shrt.setTotalLikes(count.intValue());
+		return shrt;
+	}
+
+	public void deleted(Short shrt) {
+		likes.drop(shrt.getid());
+	}
+
+	/**
+	 * Drops the likes of a deleted user that were not written to the database yet, which could
+	 * no longer be, and takes back those that were.
+	 */
+	public void deletedUser(String userId, List<String> likedShortIds) {
+		likes.purgeUser(userId, likedShortIds);
+	}
+
+	/**
+	 * Reads or changes the likes of a short in Redis, building them first if they are not
+	 * there, and returns their state, or null if they have to be read from the database.
+	 */
+	private LikeState inRedis(String shortId, Supplier<LikeState> op) {
+		var state = op.get();
+		if (state == RedisLikes.NOT_BUILT) {
+			var users = repository.likes(shortId);
+			if (users.isOK() && likes.build(shortId, users.value()))
+				state = op.get();
+		}
+		return state != RedisLikes.NOT_BUILT ? state : null;
+	}
+
+	private void flush() {
+		try {
+			// shorts that failed are left dirty, so the next flush retries them
+			boolean flushed;
+			List<String> shortIds;
+			do {
+				flushed = true;
+				shortIds = likes.dirty(batchSize);
+				for (var shortId : shortIds)
+					flushed &= flush(shortId);
+			} while (flushed && shortIds.size() == batchSize);
+		} catch (RuntimeException e) {
+			// an exception would cancel the flusher
+			Log.warning("Flushing likes failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the likes and unlikes of a short one user at a time, dropping those that can never
+	 * be written.
+	 *
+	 * @return false, if a write failed that may succeed if retried
+	 */
+	private boolean applyEach(String shortId, String ownerId, Map<String, Boolean> events) {
+		for (var event : events.entrySet()) {
+			var userId = event.getKey();
+			var user = List.of(userId);
+			var res = event.getValue()
+					? repository.applyLikes(shortId, ownerId, user, List.of())
+					: repository.applyLikes(shortId, ownerId, List.of(), user);
+			if (res.isOK() || res.error() == NOT_FOUND)
+				continue;
+			if (!permanent(res.error()))
+				return false;
+			Log.warning(() -> format("Dropped like of %s by %s: %s", shortId, userId, res.error()));
+		}
+		return true;
+	}
+
+	// Errors that writing the same likes again would run into again
+	private static boolean permanent(ErrorCode error) {
+		return error == CONFLICT || error == BAD_REQUEST || error == FORBIDDEN;
+	}
+
+	/**
+	 * Writes the likes and unlikes of a short taken since it was last flushed to the database.
+	 *
+	 * @return true, if they were written, or dropped because the short no longer exists
+	 */
+	private boolean flush(String shortId) {
+		var flush = likes.beginFlush(shortId);
+		if (flush == null)
+			return false;
+
+		var events = flush.events();
+		var added = new ArrayList<String>();
+		var removed = new ArrayList<String>();
+		events.forEach((userId, isLiked) -> (isLiked ? added : removed).add(userId));
+
+		if (!events.isEmpty()) {
+			var ownerId = shortId.substring(0, shortId.lastIndexOf(':'));
+			var res = repository.applyLikes(shortId, ownerId, added, removed);
+			if (!res.isOK() && res.error() != NOT_FOUND) {
+				Log.warning(() -> format("Flushing likes of %s failed: %s", shortId, res.error()));
+				if (!permanent(res.error()) || !applyEach(shortId, ownerId, events))
+					return false;
+			}
+			Log.info(() -> format("Flushed likes of %s: +%d, -%d", shortId, added.size(), removed.size()));
+		}
+		if (!likes.endFlush(shortId, flush))
+			Log.info(() -> format("Flush of likes of %s was taken over", shortId));
+		return true;
+	}
+}
@@ -0,0 +1,41 @@
+package tukano.impl.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Pattern;
+
+/**
+ * Position in a feed, which is ordered by timestamp and then by short id, both descending.
+ * Clients see it as an opaque token and hand it back to get the shorts after it.
+ */
+public record FeedCursor(long timestamp, String shortId) {
+
+	// Short ids are {ownerId}:{uuid}
+	private static final Pattern SHORT_ID = Pattern.compile(".+:[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+	/**
+	 * Tells if a short comes after this position in a feed, ie. if it is older.
+	 */
+	public boolean precedes(long timestamp, String shortId) {
+		return timestamp < this.timestamp || (timestamp == this.timestamp && shortId.compareTo(this.shortId) < 0);
+	}
+
+	public String encode() {
+		var token = timestamp + ":" + shortId;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Tokens come from clients, so the short id is checked to be one before it reaches any query.
+	 *
+	 * @throws IllegalArgumentException if the token was not produced by encode()
+	 */
+	public static FeedCursor decode(String token) {
+		var decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		int sep = decoded.indexOf(':');
+		if (sep < 0 || !SHORT_ID.matcher(decoded.substring(sep + 1)).matches())
+			throw new IllegalArgumentException("Invalid feed cursor: " + token);
+
+		return new FeedCursor(Long.parseLong(decoded.substring(0, sep)), decoded.substring(sep + 1));
+	}
+}
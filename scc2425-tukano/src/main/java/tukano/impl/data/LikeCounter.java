@@ -0,0 +1,59 @@
+package tukano.impl.data;
+
+/**
+ * A counter of likes of a hot short, kept in Cosmos DB apart from the short.
+ *
+ * The header of the counters of a short tells how many shards they have; each shard
+ * holds a part of the count.
+ */
+public class LikeCounter {
+	String id;
+
+	String counterOf;
+	int shards;
+	long count;
+
+	public LikeCounter() {}
+
+	public LikeCounter(String id, String counterOf, int shards, long count) {
+		this.id = id;
+		this.counterOf = counterOf;
+		this.shards = shards;
+		this.count = count;
+	}
+
+	public String getid() {return id;}
+
+	public void setid(String id) {
+		this.id = id;
+	}
+
+	public String getCounterOf() {
+		return counterOf;
+	}
+
+	public void setCounterOf(String counterOf) {
+		this.counterOf = counterOf;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	@Override
+	public String toString() {
+		return "LikeCounter [id=" + id + ", counterOf=" + counterOf + ", shards=" + shards + ", count=" + count + "]";
+	}
+}
@@ -1,9 +1,19 @@
 package tukano.impl.rest;
 
+import java.io.InputStream;
+import java.util.List;
+
 import jakarta.inject.Singleton;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
+import tukano.api.BlobDeletions;
 import tukano.api.Blobs;
 import tukano.api.rest.RestBlobs;
 import tukano.impl.JavaBlobs;
+import tukano.impl.rest.utils.ByteRange;
 
 @Singleton
 public class RestBlobsResource extends RestResource implements RestBlobs {
@@ -15,13 +25,65 @@ public class RestBlobsResource extends RestResource implements RestBlobs {
 	}
 	
 	@Override
-	public void upload(String blobId, byte[] bytes, String token) {
-		super.resultOrThrow( impl.upload(blobId, bytes, token));
+	public void upload(String blobId, InputStream data, String checksum, String token) {
+		super.resultOrThrow( impl.upload(blobId, data, checksum, token));
+	}
+
+	@Override
+	public String initiateUpload(String blobId, String token) {
+		return super.resultOrThrow( impl.initiateUpload(blobId, token));
 	}
 
 	@Override
-	public byte[] download(String blobId, String token) {
-		return super.resultOrThrow( impl.download( blobId, token ));
+	public void uploadPart(String blobId, String uploadId, int part, InputStream data, String checksum, String token) {
+		super.resultOrThrow( impl.uploadPart(blobId, uploadId, part, data, checksum, token));
+	}
+
+	@Override
+	public void completeUpload(String blobId, String uploadId, List<Integer> parts, String token) {
+		super.resultOrThrow( impl.completeUpload(blobId, uploadId, parts, token));
+	}
+
+	@Override
+	public void abortUpload(String blobId, String uploadId, String token) {
+		super.resultOrThrow( impl.abortUpload(blobId, uploadId, token));
+	}
+
+	@Override
+	public Response download(String blobId, String range, String token) {
+		if (range != null) {
+			long size = super.resultOrThrow( impl.size( blobId, token ));
+			var r = ByteRange.parse(range, size);
+
+			if (r != null && !r.satisfiable())
+				throw new WebApplicationException( Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header(CONTENT_RANGE, r.contentRange(size))
+						.build());
+
+			if (r != null) {
+				var data = super.resultOrThrow( impl.download( blobId, r.first(), r.length(), token ));
+				return Response.status(Status.PARTIAL_CONTENT)
+						.entity(streamOf(data))
+						.header(ACCEPT_RANGES, BYTES)
+						.header(CONTENT_RANGE, r.contentRange(size))
+						.header(HttpHeaders.CONTENT_LENGTH, r.length())
+						.build();
+			}
+		}
+
+		var data = super.resultOrThrow( impl.download( blobId, token ));
+		return Response.ok(streamOf(data))
+				.header(ACCEPT_RANGES, BYTES)
+				.build();
+	}
+
+	@Override
+	public Response size(String blobId, String token) {
+		long size = super.resultOrThrow( impl.size( blobId, token ));
+		return Response.ok()
+				.header(ACCEPT_RANGES, BYTES)
+				.header(HttpHeaders.CONTENT_LENGTH, size)
+				.build();
 	}
 
 	@Override
@@ -30,7 +92,15 @@ public class RestBlobsResource extends RestResource implements RestBlobs {
 	}
 	
 	@Override
-	public void deleteAllBlobs(String userId, String password) {
-		super.resultOrThrow( impl.deleteAllBlobs( userId, password ));
+	public BlobDeletions deleteAllBlobs(String userId, String password) {
+		return super.resultOrThrow( impl.deleteAllBlobs( userId, password ));
+	}
+
+	private static StreamingOutput streamOf(InputStream data) {
+		return out -> {
+			try (data) {
+				data.transferTo(out);
+			}
+		};
 	}
 }
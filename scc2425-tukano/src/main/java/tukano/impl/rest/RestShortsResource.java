@@ -3,6 +3,7 @@ package tukano.impl.rest;
 import java.util.List;
 
 import jakarta.inject.Singleton;
+import tukano.api.FeedPage;
 import tukano.api.Short;
 import tukano.api.Shorts;
 import tukano.api.rest.RestShorts;
@@ -53,8 +54,13 @@ public class RestShortsResource extends RestResource implements RestShorts {
 	}
 
 	@Override
-	public List<String> getFeed(String userId, String password) {
-		return super.resultOrThrow( impl.getFeed(userId, password));
+	public boolean liked(String shortId, String userId, String password) {
+		return super.resultOrThrow( impl.liked(shortId, userId, password));
+	}
+
+	@Override
+	public FeedPage getFeed(String userId, String password, Integer limit, String cursor, Long since) {
+		return super.resultOrThrow( impl.getFeed(userId, password, limit, cursor, since));
 	}
 
 	@Override
@@ -0,0 +1,69 @@
+package tukano.impl.rest.utils;
+
+/**
+ * A single byte range of a resource, as requested by an HTTP Range header
+ * (RFC 9110, section 14). Positions are inclusive.
+ */
+public record ByteRange(long first, long last) {
+
+	private static final String BYTES_UNIT = "bytes=";
+
+	public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+	/**
+	 * Parses a Range header against a resource of the given size.
+	 *
+	 * @return the requested range, clipped to the size of the resource;
+	 * 	UNSATISFIABLE, if the range does not overlap the resource;
+	 * 	null, if the header should be ignored, ie. it is malformed, uses another
+	 * 	unit or asks for multiple ranges
+	 */
+	public static ByteRange parse(String header, long size) {
+		if (header == null || !header.startsWith(BYTES_UNIT))
+			return null;
+
+		var spec = header.substring(BYTES_UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0 || spec.indexOf(',') >= 0)
+			return null;
+
+		try {
+			var start = spec.substring(0, dash).trim();
+			var end = spec.substring(dash + 1).trim();
+
+			if (start.isEmpty()) {
+				long suffix = Long.parseLong(end);
+				if (suffix <= 0 || size == 0)
+					return UNSATISFIABLE;
+				return new ByteRange(Math.max(0, size - suffix), size - 1);
+			}
+
+			long first = Long.parseLong(start);
+			long last = end.isEmpty() ? size - 1 : Long.parseLong(end);
+			if (first < 0 || last < first)
+				return null;
+
+			if (first >= size)
+				return UNSATISFIABLE;
+
+			return new ByteRange(first, Math.min(last, size - 1));
+		} catch (NumberFormatException x) {
+			return null;
+		}
+	}
+
+	public boolean satisfiable() {
+		return first >= 0;
+	}
+
+	public long length() {
+		return last - first + 1;
+	}
+
+	/**
+	 * The value of the Content-Range header describing this range.
+	 */
+	public String contentRange(long size) {
+		return satisfiable() ? String.format("bytes %d-%d/%d", first, last, size) : String.format("bytes */%d", size);
+	}
+}
@@ -0,0 +1,405 @@
+package tukano.impl.storage;
+
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+import static tukano.api.Result.ErrorCode.BAD_REQUEST;
+import static tukano.api.Result.ErrorCode.CONFLICT;
+import static tukano.api.Result.ErrorCode.INTERNAL_ERROR;
+import static tukano.api.Result.ErrorCode.NOT_FOUND;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.BlockListType;
+import com.azure.storage.blob.models.ListBlobsOptions;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.options.BlockBlobCommitBlockListOptions;
+
+import tukano.api.Blobs;
+import tukano.api.Result;
+import utils.Hash;
+import utils.Hex;
+import utils.Sha256InputStream;
+import utils.TryCatch.ThrowableSupplier;
+
+/**
+ * Blob storage backed by an Azure Blob Storage container.
+ *
+ * Uploads and downloads are streamed in blocks of BLOCK_SIZE bytes, so the memory
+ * used per request does not depend on the size of the blob.
+ */
+public class AzureBlobStorage implements BlobStorage {
+	private static final String BlobStoreConnection = System.getProperty("BlobStoreConnection");
+	private static final int BLOCK_SIZE = 1024 * 1024;
+	private static final int MAX_UPLOAD_CONCURRENCY = 2;
+	private static final String ANY_ETAG = "*";
+	private static final String SHA256_METADATA = "sha256";
+	private static final int MAX_PART_SIZE = 16 * 1024 * 1024;
+	private static final char LAST_BLOCK = 'L';
+	private static final char MORE_BLOCKS = 'M';
+	// Azure rejects block ids longer than 64 bytes, before Base64
+	private static final int MAX_BLOCK_ID_LENGTH = 64;
+	private static final int UPLOAD_TAG_LENGTH = 32;
+	private static final int MAX_PARTS = 1000000;
+
+	private final BlobContainerClient containerClient;
+
+	public AzureBlobStorage() {
+		containerClient = new BlobContainerClientBuilder()
+				.connectionString(BlobStoreConnection)
+				.containerName(Blobs.NAME)
+				.buildClient();
+	}
+
+	@Override
+	public Result<Void> write(String path, byte[] bytes) {
+		return write(path, new ByteArrayInputStream(bytes));
+	}
+
+	@Override
+	public Result<Void> write(String path, InputStream in) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		var blob = containerClient.getBlobClient(path);
+
+		var existing = storedHash(blob);
+		if (existing.isOK()) {
+			if (existing.value().equals(Hex.of(Hash.sha256(in))))
+				return ok();
+			else
+				return error(CONFLICT);
+		}
+		if (existing.error() != NOT_FOUND)
+			return error(existing.error());
+
+		var hashing = Sha256InputStream.of(in);
+		var options = new BlobParallelUploadOptions(hashing)
+				.setParallelTransferOptions(new ParallelTransferOptions()
+						.setBlockSizeLong((long) BLOCK_SIZE)
+						.setMaxConcurrency(MAX_UPLOAD_CONCURRENCY))
+				.setRequestConditions(new BlobRequestConditions().setIfNoneMatch(ANY_ETAG));
+
+		var res = tryCatch(() -> blob.uploadWithResponse(options, null, Context.NONE));
+		if (!res.isOK())
+			return error(res.error());
+
+		storeHash(blob, Hex.of(hashing.sha256()));
+		return ok();
+	}
+
+	@Override
+	public Result<List<String>> list(String prefix) {
+		if (prefix == null)
+			return error(BAD_REQUEST);
+
+		return tryCatch(() -> containerClient.listBlobs(new ListBlobsOptions().setPrefix(prefix), null)
+				.stream()
+				.map(BlobItem::getName)
+				.toList());
+	}
+
+	/**
+	 * Blobs cannot be renamed in place: the blob is copied server-side, within the
+	 * same account, and the source deleted.
+	 */
+	@Override
+	public Result<Void> move(String from, String to) {
+		if (from == null || to == null)
+			return error(BAD_REQUEST);
+
+		var src = containerClient.getBlobClient(from);
+		var dst = containerClient.getBlobClient(to);
+
+		var res = tryCatch(() -> dst.beginCopy(src.getBlobUrl(), null).waitForCompletion());
+		if (!res.isOK())
+			return error(res.error());
+
+		return delete(from);
+	}
+
+	/**
+	 * Parts are staged as uncommitted blocks of the blob itself, so committing them
+	 * assembles the blob server-side, without copying any data. The size of a block
+	 * must be known before it is sent, so a part is staged as a run of blocks of up to
+	 * BLOCK_SIZE bytes, each read into a single buffer. The blocks of a part are tagged
+	 * with the time it was written at, and the last of them is marked as such: it is only
+	 * staged once the whole part has been read, and its checksum verified.
+	 */
+	@Override
+	public Result<Void> writePart(String path, String uploadId, int part, InputStream in) {
+		if (path == null || uploadId == null || part < 0 || part >= MAX_PARTS)
+			return error(BAD_REQUEST);
+
+		var blocks = containerClient.getBlobClient(path).getBlockBlobClient();
+		long attempt = System.currentTimeMillis();
+		var res = tryCatch(() -> {
+			try (var src = new PushbackInputStream(in)) {
+				var buf = new byte[BLOCK_SIZE];
+				long total = 0;
+				for (int block = 0;; block++) {
+					int n = src.readNBytes(buf, 0, BLOCK_SIZE);
+					int next = n < BLOCK_SIZE ? -1 : src.read();
+					if (next >= 0)
+						src.unread(next);
+
+					total += n;
+					if (total > MAX_PART_SIZE)
+						return false;
+
+					boolean last = next < 0;
+					blocks.stageBlock(blockId(uploadId, part, attempt, block, last), new ByteArrayInputStream(buf, 0, n), n);
+					if (last)
+						return true;
+				}
+			}
+		});
+		if (!res.isOK())
+			return error(res.error());
+
+		return res.value() ? ok() : error(BAD_REQUEST);
+	}
+
+	/**
+	 * Commits the blocks of the latest complete run staged for each part, ignoring those
+	 * of runs that were retried. The SHA-256 of the assembled blob cannot be derived from
+	 * those of its parts, so the blob is read back once to record it.
+	 */
+	@Override
+	public Result<Void> commitParts(String path, String uploadId, List<Integer> parts) {
+		if (path == null || uploadId == null)
+			return error(BAD_REQUEST);
+
+		var blob = containerClient.getBlobClient(path);
+		var blocks = blob.getBlockBlobClient();
+
+		var staged = tryCatch(() -> blocks.listBlocks(BlockListType.UNCOMMITTED).getUncommittedBlocks());
+		if (!staged.isOK())
+			return error(staged.error());
+
+		var runs = staged.value().stream()
+				.map(block -> StagedBlock.parse(uploadId, block.getName()))
+				.filter(Objects::nonNull)
+				.collect(Collectors.groupingBy(StagedBlock::part));
+
+		var ids = new ArrayList<String>();
+		for (var part : parts) {
+			var run = latestCompleteRun(runs.getOrDefault(part, List.of()));
+			if (run == null)
+				return error(NOT_FOUND);
+			run.forEach(block -> ids.add(block.id()));
+		}
+
+		var options = new BlockBlobCommitBlockListOptions(ids)
+				.setRequestConditions(new BlobRequestConditions().setIfNoneMatch(ANY_ETAG));
+
+		var res = tryCatch(() -> blocks.commitBlockListWithResponse(options, null, Context.NONE));
+		if (!res.isOK())
+			return error(res.error());
+
+		var in = tryCatch(() -> blob.openInputStream(new BlobInputStreamOptions().setBlockSize(BLOCK_SIZE)));
+		if (in.isOK())
+			storeHash(blob, Hex.of(Hash.sha256(in.value())));
+		return ok();
+	}
+
+	/**
+	 * Uncommitted blocks cannot be deleted: the service discards them when the blob
+	 * is committed or, at the latest, after a week.
+	 */
+	@Override
+	public Result<Void> abortParts(String path, String uploadId, List<Integer> parts) {
+		return ok();
+	}
+
+	@Override
+	public Result<Void> delete(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		var res = tryCatch(() -> containerClient.getBlobClient(path).deleteIfExists());
+		if (!res.isOK())
+			return error(res.error());
+
+		return res.value() ? ok() : error(NOT_FOUND);
+	}
+
+	@Override
+	public Result<byte[]> read(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		return tryCatch(() -> containerClient.getBlobClient(path).downloadContent().toBytes());
+	}
+
+	@Override
+	public Result<Void> read(String path, Consumer<byte[]> sink) {
+		var res = open(path);
+		if (!res.isOK())
+			return error(res.error());
+
+		return tryCatch(() -> {
+			try (var in = res.value()) {
+				int n;
+				var chunk = new byte[BLOCK_SIZE];
+				while ((n = in.read(chunk)) > 0)
+					sink.accept(Arrays.copyOf(chunk, n));
+			}
+			return null;
+		});
+	}
+
+	@Override
+	public Result<InputStream> open(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		return tryCatch(() -> containerClient.getBlobClient(path)
+				.openInputStream(new BlobInputStreamOptions().setBlockSize(BLOCK_SIZE)));
+	}
+
+	@Override
+	public Result<InputStream> open(String path, long offset, long length) {
+		if (path == null || offset < 0 || length < 0)
+			return error(BAD_REQUEST);
+
+		return tryCatch(() -> containerClient.getBlobClient(path)
+				.openInputStream(new BlobInputStreamOptions()
+						.setRange(new BlobRange(offset, length))
+						.setBlockSize((int) Math.min(BLOCK_SIZE, Math.max(length, 1)))));
+	}
+
+	@Override
+	public Result<Long> size(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		return tryCatch(() -> containerClient.getBlobClient(path).getProperties().getBlobSize());
+	}
+
+	/**
+	 * Obtains the SHA-256 of the blob from its metadata, with a single properties request.
+	 * Blobs written before the hash was recorded are hashed once and backfilled.
+	 */
+	private Result<String> storedHash(BlobClient blob) {
+		var props = tryCatch(() -> blob.getProperties());
+		if (!props.isOK())
+			return error(props.error());
+
+		var hash = props.value().getMetadata().get(SHA256_METADATA);
+		if (hash != null)
+			return ok(hash);
+
+		var in = tryCatch(() -> blob.openInputStream(new BlobInputStreamOptions().setBlockSize(BLOCK_SIZE)));
+		if (!in.isOK())
+			return error(in.error());
+
+		var computed = Hex.of(Hash.sha256(in.value()));
+		storeHash(blob, computed);
+		return ok(computed);
+	}
+
+	private void storeHash(BlobClient blob, String hash) {
+		tryCatch(() -> {
+			blob.setMetadata(Map.of(SHA256_METADATA, hash));
+			return null;
+		});
+	}
+
+	/**
+	 * Block ids must all have the same length within a blob, and be at most 64 bytes long,
+	 * so uploads are told apart by a fixed-length digest of their id, whatever its length:
+	 * {tag}-{part}-{attempt}-{block}-{L|M} takes 61 bytes.
+	 */
+	private static String blockId(String uploadId, int part, long attempt, int block, boolean last) {
+		var id = String.format("%s-%06d-%012x-%06d-%c", uploadTag(uploadId), part, attempt, block, last ? LAST_BLOCK : MORE_BLOCKS);
+		if (id.length() > MAX_BLOCK_ID_LENGTH)
+			throw new IllegalStateException("Block id too long: " + id);
+		return Base64.getEncoder().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String uploadTag(String uploadId) {
+		return Hex.of(Hash.sha256(uploadId.getBytes(StandardCharsets.UTF_8))).substring(0, UPLOAD_TAG_LENGTH);
+	}
+
+	/**
+	 * Returns the blocks of the latest run of a part that was staged in full, in order,
+	 * or null if there is none.
+	 */
+	private static List<StagedBlock> latestCompleteRun(List<StagedBlock> blocks) {
+		var attempts = blocks.stream().collect(Collectors.groupingBy(StagedBlock::attempt));
+		return attempts.keySet().stream()
+				.sorted(Comparator.reverseOrder())
+				.map(attempt -> attempts.get(attempt).stream().sorted(Comparator.comparingInt(StagedBlock::block)).toList())
+				.filter(AzureBlobStorage::complete)
+				.findFirst()
+				.orElse(null);
+	}
+
+	private static boolean complete(List<StagedBlock> run) {
+		for (int i = 0; i < run.size(); i++)
+			if (run.get(i).block() != i)
+				return false;
+		return run.get(run.size() - 1).last();
+	}
+
+	private record StagedBlock(String id, int part, long attempt, int block, boolean last) {
+
+		/**
+		 * Parses the id of a block staged for an upload, returning null for blocks of other uploads.
+		 */
+		static StagedBlock parse(String uploadId, String id) {
+			var name = new String(Base64.getDecoder().decode(id), StandardCharsets.UTF_8);
+			var tag = uploadTag(uploadId);
+			if (!name.startsWith(tag + "-"))
+				return null;
+
+			var fields = name.substring(tag.length() + 1).split("-");
+			if (fields.length != 4)
+				return null;
+
+			return new StagedBlock(id, Integer.parseInt(fields[0]), Long.parseLong(fields[1], 16),
+					Integer.parseInt(fields[2]), fields[3].charAt(0) == LAST_BLOCK);
+		}
+	}
+
+	private <T> Result<T> tryCatch(ThrowableSupplier<T> supplierFunc) {
+		try {
+			return ok(supplierFunc.get());
+		} catch (BlobStorageException e) {
+			return error(errorCodeFromStatus(e.getStatusCode()));
+		} catch (Exception x) {
+			x.printStackTrace();
+			return error(INTERNAL_ERROR);
+		}
+	}
+
+	private static Result.ErrorCode errorCodeFromStatus(int status) {
+		return switch (status) {
+			case 404 -> NOT_FOUND;
+			case 409, 412 -> CONFLICT;
+			default -> INTERNAL_ERROR;
+		};
+	}
+}
@@ -1,5 +1,15 @@
 package tukano.impl.storage;
 
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+import static tukano.api.Result.ErrorCode.NOT_FOUND;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.function.Consumer;
 
 import tukano.api.Result;
@@ -7,11 +17,109 @@ import tukano.api.Result;
 public interface BlobStorage {
 		
 	public Result<Void> write(String path, byte[] bytes );
+
+	/**
+	 * Writes a blob from a stream, without ever holding its full contents in memory.
+	 */
+	public Result<Void> write(String path, InputStream in );
 		
 	public Result<Void> delete(String path);
 	
 	public Result<byte[]> read(String path);
 
+	/**
+	 * Hands a blob to the sink in chunks. A chunk may be reused for the next one once the
+	 * sink returns, so the sink must copy what it keeps.
+	 */
 	public Result<Void> read(String path, Consumer<byte[]> sink);
 
+	/**
+	 * Opens a blob for streaming. The caller is responsible for closing the returned stream.
+	 */
+	public Result<InputStream> open(String path);
+
+	/**
+	 * Opens length bytes of a blob, starting at the given offset, reading only that range from storage.
+	 */
+	public Result<InputStream> open(String path, long offset, long length);
+
+	public Result<Long> size(String path);
+
+	/**
+	 * Lists the paths of the blobs whose path starts with the given prefix.
+	 */
+	public Result<List<String>> list(String prefix);
+
+	/**
+	 * Renames a blob, replacing any blob already stored under the new path.
+	 */
+	public Result<Void> move(String from, String to);
+
+	/**
+	 * Identifies the contents stored under a path. Paths holding the same contents may
+	 * share the same key, eg. to cache them once.
+	 */
+	default String contentKey(String path) {
+		return path;
+	}
+
+	/**
+	 * Stages one part of a multipart upload of a blob. Staging a part again replaces it.
+	 * By default, parts are kept as separate blobs, under uploads/{uploadId}/.
+	 */
+	default Result<Void> writePart(String path, String uploadId, int part, InputStream in) {
+		var partPath = partPath(uploadId, part);
+		delete(partPath);
+		return write(partPath, in);
+	}
+
+	/**
+	 * Assembles the blob from the given staged parts, in order, and discards them.
+	 */
+	default Result<Void> commitParts(String path, String uploadId, List<Integer> parts) {
+		for (var part : parts)
+			if (!size(partPath(uploadId, part)).isOK())
+				return error(NOT_FOUND);
+
+		var res = write(path, concat(this, uploadId, parts));
+		if (res.isOK())
+			abortParts(path, uploadId, parts);
+		return res;
+	}
+
+	/**
+	 * Discards staged parts of a multipart upload.
+	 */
+	default Result<Void> abortParts(String path, String uploadId, List<Integer> parts) {
+		for (var part : parts)
+			delete(partPath(uploadId, part));
+		return ok();
+	}
+
+	static String partPath(String uploadId, int part) {
+		return "uploads/" + uploadId + "/" + part;
+	}
+
+	/**
+	 * Streams the parts staged in a storage one after the other, opening each only when
+	 * the previous one is exhausted.
+	 */
+	static InputStream concat(BlobStorage storage, String uploadId, List<Integer> parts) {
+		var it = parts.iterator();
+		return new SequenceInputStream(new Enumeration<InputStream>() {
+			@Override
+			public boolean hasMoreElements() {
+				return it.hasNext();
+			}
+
+			@Override
+			public InputStream nextElement() {
+				var res = storage.open(partPath(uploadId, it.next()));
+				if (!res.isOK())
+					throw new UncheckedIOException(new IOException("Missing part: " + res.error()));
+				return res.value();
+			}
+		});
+	}
+
 }
@@ -0,0 +1,435 @@
+package tukano.impl.storage;
+
+import static java.lang.String.format;
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+import static tukano.api.Result.ErrorCode.BAD_REQUEST;
+import static tukano.api.Result.ErrorCode.CONFLICT;
+import static tukano.api.Result.ErrorCode.INTERNAL_ERROR;
+import static tukano.api.Result.ErrorCode.NOT_FOUND;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+import storageConnections.RedisCache;
+import tukano.api.Result;
+import utils.Hash;
+import utils.Hex;
+import utils.Sha256InputStream;
+import utils.Sleep;
+
+/**
+ * Deduplicating, content-addressed layer over another BlobStorage.
+ *
+ * Contents are stored once, under objects/{sha256}. The mapping of each blob id to the hash of
+ * its contents is a small object of the underlying storage (refs/{blobId}), and so are the
+ * references to each object, one per blob id (backrefs/{sha256}/{blobId}), so that both are as
+ * durable as the contents themselves. Deleting a blob id drops its reference and the object is
+ * reclaimed when none is left. Changes to the references of an object are serialized by a
+ * short-lived Redis lock, so an object is never reclaimed while it is being referenced again.
+ *
+ * A blob id is only mapped once its object and its reference are in place, and unmapped before
+ * they are dropped, so a write or a delete cut short leaves at most an object that is never
+ * reclaimed, but never a blob id mapped to missing contents. Mappings are cached in Redis
+ * (blobref:{blobId}), which holds nothing that cannot be read back from the storage.
+ *
+ * Blobs written before this layer was enabled are still served from their own path.
+ */
+public class ContentAddressedStorage implements BlobStorage {
+	private static final Logger Log = Logger.getLogger(ContentAddressedStorage.class.getName());
+
+	private static final String OBJECTS_DIR = "objects/";
+	private static final String STAGING_DIR = "staging/";
+	private static final String REFS_DIR = "refs/";
+	private static final String BACKREFS_DIR = "backrefs/";
+	private static final String REF_PREFIX = "blobref:";
+	private static final String LOCK_PREFIX = "blobrc_lock:";
+	private static final String UNMAPPED = "-";
+	private static final long REF_CACHE_TTL = 24 * 3600;
+	private static final long UNMAPPED_CACHE_TTL = 60;
+	private static final long LOCK_TTL = 30000;
+	private static final int LOCK_RETRY_SLEEP = 10;
+	private static final String UNLOCK_SCRIPT =
+			"if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+	private final BlobStorage objects;
+
+	public ContentAddressedStorage(BlobStorage objects) {
+		this.objects = objects;
+	}
+
+	@Override
+	public Result<Void> write(String path, byte[] bytes) {
+		return write(path, new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * No Redis connection is held while the contents stream in: connections are only taken
+	 * around the lock of the object and the caching of the mapping.
+	 *
+	 * When the client sent the hash of the contents and they are stored already, the upload
+	 * is still read through, to check that the client does have them, but not stored again.
+	 */
+	@Override
+	public Result<Void> write(String path, InputStream in) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		var existing = hashOf(path);
+		if (existing != null)
+			return existing.equals(Hex.of(Hash.sha256(in))) ? ok() : error(CONFLICT);
+
+		if (objects.size(path).isOK())
+			return objects.write(path, in);
+
+		var hashing = Sha256InputStream.of(in);
+		if (hashing.expected() != null) {
+			var res = writeStored(path, hashing.expected().toLowerCase(), hashing);
+			if (res != null)
+				return res;
+		}
+
+		// The hash is only known once the contents are in, so they land in a staging object first
+		var staging = STAGING_DIR + UUID.randomUUID();
+		var res = objects.write(staging, hashing);
+		if (!res.isOK())
+			return res;
+
+		var hash = Hex.of(hashing.sha256());
+		res = locked(hash, () -> {
+			if (objects.size(OBJECTS_DIR + hash).isOK()) {
+				objects.delete(staging);
+				Log.info(() -> format("Deduplicated blob: %s -> %s", path, hash));
+			} else {
+				var moved = objects.move(staging, OBJECTS_DIR + hash);
+				if (!moved.isOK())
+					return moved;
+			}
+
+			var referenced = objects.write(backrefOf(hash, path), new byte[0]);
+			return referenced.isOK() ? map(hash, path) : referenced;
+		});
+		if (!res.isOK()) {
+			objects.delete(staging);
+			return res;
+		}
+
+		cacheRef(path, hash);
+		return ok();
+	}
+
+	/**
+	 * Maps a blob id to an object that is stored already, referencing it first so that it
+	 * is not reclaimed while the upload is checked against it. Returns null, with nothing
+	 * read, if there is no such object.
+	 */
+	private Result<Void> writeStored(String path, String hash, Sha256InputStream hashing) {
+		var pinned = locked(hash, () -> objects.size(OBJECTS_DIR + hash).isOK()
+				? objects.write(backrefOf(hash, path), new byte[0])
+				: error(NOT_FOUND));
+		if (pinned.error() == NOT_FOUND)
+			return null;
+		if (!pinned.isOK())
+			return pinned;
+
+		try {
+			Hash.sha256(hashing);
+		} catch (UncheckedIOException e) {
+			locked(hash, () -> {
+				unreference(hash, path);
+				return ok();
+			});
+			return error(hashing.mismatched() ? BAD_REQUEST : INTERNAL_ERROR);
+		}
+
+		var res = locked(hash, () -> map(hash, path));
+		if (!res.isOK())
+			return res;
+
+		Log.info(() -> format("Deduplicated blob before storing it: %s -> %s", path, hash));
+		cacheRef(path, hash);
+		return ok();
+	}
+
+	@Override
+	public Result<Void> delete(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		var hash = hashOf(path);
+		if (hash == null)
+			return objects.delete(path);
+
+		var res = objects.delete(REFS_DIR + path);
+		if (!res.isOK() && res.error() != NOT_FOUND)
+			return res;
+		uncacheRef(path);
+
+		var released = locked(hash, () -> {
+			unreference(hash, path);
+			return ok();
+		});
+		if (!released.isOK())
+			Log.warning(() -> format("Unable to release blob object %s of %s", hash, path));
+		return ok();
+	}
+
+	@Override
+	public Result<byte[]> read(String path) {
+		return objects.read(physicalPath(path));
+	}
+
+	@Override
+	public Result<Void> read(String path, Consumer<byte[]> sink) {
+		return objects.read(physicalPath(path), sink);
+	}
+
+	@Override
+	public Result<InputStream> open(String path) {
+		return objects.open(physicalPath(path));
+	}
+
+	@Override
+	public Result<InputStream> open(String path, long offset, long length) {
+		return objects.open(physicalPath(path), offset, length);
+	}
+
+	@Override
+	public Result<Long> size(String path) {
+		return objects.size(physicalPath(path));
+	}
+
+	/**
+	 * Lists the blob ids mapped to objects, along with the blobs written before this layer was enabled.
+	 */
+	@Override
+	public Result<List<String>> list(String prefix) {
+		var legacy = objects.list(prefix);
+		if (!legacy.isOK())
+			return legacy;
+
+		var mapped = objects.list(REFS_DIR + prefix);
+		if (!mapped.isOK())
+			return mapped;
+
+		var paths = new HashSet<>(legacy.value());
+		mapped.value().forEach(ref -> paths.add(ref.substring(REFS_DIR.length())));
+		return ok(new ArrayList<>(paths));
+	}
+
+	/**
+	 * Renames a blob by mapping the new id to the same object and then unmapping the old one,
+	 * so the contents are never copied.
+	 */
+	@Override
+	public Result<Void> move(String from, String to) {
+		if (from == null || to == null)
+			return error(BAD_REQUEST);
+
+		// whatever is under the new id is replaced, be it mapped or not
+		var replaced = delete(to);
+		if (!replaced.isOK() && replaced.error() != NOT_FOUND)
+			return replaced;
+
+		var hash = hashOf(from);
+		if (hash == null)
+			return objects.move(from, to);
+
+		var res = locked(hash, () -> {
+			var referenced = objects.write(backrefOf(hash, to), new byte[0]);
+			if (!referenced.isOK())
+				return referenced;
+
+			var mapped = map(hash, to);
+			if (!mapped.isOK())
+				return mapped;
+
+			var unmapped = objects.delete(REFS_DIR + from);
+			if (!unmapped.isOK() && unmapped.error() != NOT_FOUND)
+				return unmapped;
+
+			uncacheRef(from);
+			objects.delete(backrefOf(hash, from));
+			return ok();
+		});
+		if (!res.isOK())
+			return res;
+
+		cacheRef(to, hash);
+		return ok();
+	}
+
+	/**
+	 * Parts are staged in the underlying storage as they are, and only the assembled
+	 * blob goes through deduplication.
+	 */
+	@Override
+	public Result<Void> writePart(String path, String uploadId, int part, InputStream in) {
+		var partPath = BlobStorage.partPath(uploadId, part);
+		objects.delete(partPath);
+		return objects.write(partPath, in);
+	}
+
+	@Override
+	public Result<Void> commitParts(String path, String uploadId, List<Integer> parts) {
+		for (var part : parts)
+			if (!objects.size(BlobStorage.partPath(uploadId, part)).isOK())
+				return error(NOT_FOUND);
+
+		var res = write(path, BlobStorage.concat(objects, uploadId, parts));
+		if (res.isOK())
+			abortParts(path, uploadId, parts);
+		return res;
+	}
+
+	@Override
+	public Result<Void> abortParts(String path, String uploadId, List<Integer> parts) {
+		for (var part : parts)
+			objects.delete(BlobStorage.partPath(uploadId, part));
+		return ok();
+	}
+
+	@Override
+	public String contentKey(String path) {
+		var hash = hashOf(path);
+		return hash != null ? hash : path;
+	}
+
+	private String physicalPath(String path) {
+		var hash = hashOf(path);
+		return hash != null ? OBJECTS_DIR + hash : path;
+	}
+
+	/**
+	 * Returns the hash a blob id is mapped to, from Redis or else from its ref object, or null
+	 * if it is not mapped.
+	 */
+	private String hashOf(String path) {
+		if (path == null)
+			return null;
+
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			var cached = jedis.get(REF_PREFIX + path);
+			if (cached != null)
+				return cached.equals(UNMAPPED) ? null : cached;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to resolve blob " + path + ": " + e.getMessage());
+		}
+
+		var ref = objects.read(REFS_DIR + path);
+		if (!ref.isOK()) {
+			if (ref.error() == NOT_FOUND)
+				cache(REF_PREFIX + path, UNMAPPED, UNMAPPED_CACHE_TTL);
+			return null;
+		}
+
+		var hash = new String(ref.value(), StandardCharsets.US_ASCII);
+		cacheRef(path, hash);
+		return hash;
+	}
+
+	/**
+	 * Maps a blob id to a referenced object, dropping the reference if the id is mapped
+	 * already, which is how a concurrent write of other contents fails. Must be called with
+	 * the object locked.
+	 */
+	private Result<Void> map(String hash, String path) {
+		var res = objects.write(REFS_DIR + path, hash.getBytes(StandardCharsets.US_ASCII));
+		if (!res.isOK())
+			unreference(hash, path);
+		return res;
+	}
+
+	/**
+	 * Runs a change to the references of an object with the object locked, failing with
+	 * INTERNAL_ERROR if it cannot be locked.
+	 */
+	private Result<Void> locked(String hash, Supplier<Result<Void>> change) {
+		var lock = lock(hash);
+		if (lock == null)
+			return error(INTERNAL_ERROR);
+		try {
+			return change.get();
+		} finally {
+			unlock(hash, lock);
+		}
+	}
+
+	/**
+	 * Drops the reference of a blob id to an object, reclaiming the object if no other is left.
+	 * Must be called with the object locked.
+	 */
+	private void unreference(String hash, String path) {
+		objects.delete(backrefOf(hash, path));
+
+		var left = objects.list(BACKREFS_DIR + hash + "/");
+		if (!left.isOK() || !left.value().isEmpty())
+			return;
+
+		var res = objects.delete(OBJECTS_DIR + hash);
+		if (!res.isOK())
+			Log.warning(() -> format("Unable to reclaim blob object %s: %s", hash, res.error()));
+	}
+
+	private static String backrefOf(String hash, String path) {
+		return BACKREFS_DIR + hash + "/" + path;
+	}
+
+	private void cacheRef(String path, String hash) {
+		cache(REF_PREFIX + path, hash, REF_CACHE_TTL);
+	}
+
+	private void uncacheRef(String path) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.del(REF_PREFIX + path);
+		} catch (JedisException e) {
+			// the mapping is still read back from the cache until it expires
+			Log.warning("Redis access failed, unable to uncache blob " + path + ": " + e.getMessage());
+		}
+	}
+
+	private void cache(String key, String value, long ttl) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.setex(key, ttl, value);
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to cache " + key + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Locks the references of an object, returning the token to unlock it with, or null if
+	 * Redis is unavailable.
+	 */
+	private String lock(String hash) {
+		var token = UUID.randomUUID().toString();
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			while (jedis.set(LOCK_PREFIX + hash, token, SetParams.setParams().nx().px(LOCK_TTL)) == null)
+				Sleep.ms(LOCK_RETRY_SLEEP);
+			return token;
+		} catch (JedisException e) {
+			Log.warning("Redis access failed, unable to lock blob object " + hash + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void unlock(String hash, String token) {
+		try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+			jedis.eval(UNLOCK_SCRIPT, List.of(LOCK_PREFIX + hash), List.of(token));
+		} catch (JedisException e) {
+			// the lock expires on its own
+			Log.warning("Redis access failed, unable to unlock blob object " + hash + ": " + e.getMessage());
+		}
+	}
+}
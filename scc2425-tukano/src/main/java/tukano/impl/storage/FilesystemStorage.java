@@ -8,43 +8,80 @@ import static tukano.api.Result.ErrorCode.CONFLICT;
 import static tukano.api.Result.ErrorCode.INTERNAL_ERROR;
 import static tukano.api.Result.ErrorCode.NOT_FOUND;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.function.Consumer;
 
 import tukano.api.Result;
 import utils.Hash;
 import utils.IO;
+import utils.Sha256InputStream;
 
+/**
+ * Blob storage backed by the local filesystem.
+ *
+ * Downloads are served through memory-mapped regions of the blob files (see MappedFileInputStream).
+ * Uploads are read straight into a fixed pool of buffers, allocated once, so up to
+ * WRITE_BUFFERS concurrent uploads do not allocate per request. Uploads beyond those
+ * do not wait for a pooled buffer; they copy through a buffer of their own.
+ */
 public class FilesystemStorage implements BlobStorage {
 	private final String rootDir;
-	private static final int CHUNK_SIZE = 4096;
-	private static final String DEFAULT_ROOT_DIR = "/tmp/";
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final int WRITE_BUFFERS = 32;
+	public static final String DEFAULT_ROOT_DIR = "/tmp/";
+	private static final String HASH_ATTRIBUTE = "tukano.sha256";
+	private static final String HASH_SIDECAR_SUFFIX = ".sha256";
+
+	private final BlockingQueue<byte[]> writeBuffers;
 
 	public FilesystemStorage() {
-		this.rootDir = DEFAULT_ROOT_DIR;
+		this(DEFAULT_ROOT_DIR);
+	}
+
+	public FilesystemStorage(String rootDir) {
+		this.rootDir = rootDir.endsWith("/") ? rootDir : rootDir + "/";
+		this.writeBuffers = new ArrayBlockingQueue<>(WRITE_BUFFERS);
+		for (int i = 0; i < WRITE_BUFFERS; i++)
+			writeBuffers.add(new byte[WRITE_BUFFER_SIZE]);
 	}
 	
 	@Override
 	public Result<Void> write(String path, byte[] bytes) {
+		return write(path, new ByteArrayInputStream(bytes));
+	}
+
+	@Override
+	public Result<Void> write(String path, InputStream in) {
 		if (path == null)
 			return error(BAD_REQUEST);
 
 		var file = toFile( path );
 
 		if (file.exists()) {
-			if (Arrays.equals(Hash.sha256(bytes), Hash.sha256(IO.read(file))))
+			if (Arrays.equals(Hash.sha256(in), storedHash(file)))
 				return ok();
 			else
 				return error(CONFLICT);
 
 		}
-		IO.write(file, bytes);
-		return ok();
+		return writeFile(file, in);
 	}
 
 	@Override
@@ -73,17 +110,139 @@ public class FilesystemStorage implements BlobStorage {
 		return ok();
 	}
 	
+	@Override
+	public Result<InputStream> open(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		var file = toFile( path );
+		if( ! file.exists() )
+			return error(NOT_FOUND);
+
+		var in = open( file );
+		return in != null ? ok( in ) : error( INTERNAL_ERROR );
+	}
+	
+	@Override
+	public Result<InputStream> open(String path, long offset, long length) {
+		if (path == null || offset < 0 || length < 0)
+			return error(BAD_REQUEST);
+
+		var file = toFile( path );
+		if( ! file.exists() )
+			return error(NOT_FOUND);
+
+		var in = open( file, offset, length );
+		return in != null ? ok( in ) : error( INTERNAL_ERROR );
+	}
+
+	@Override
+	public Result<Long> size(String path) {
+		if (path == null)
+			return error(BAD_REQUEST);
+
+		var file = toFile( path );
+		return file.exists() ? ok( file.length() ) : error(NOT_FOUND);
+	}
+
+	/**
+	 * Blobs of a prefix are looked up in the directory the prefix falls in, skipping the
+	 * hash sidecars and the temporary files of writes in progress.
+	 */
+	@Override
+	public Result<List<String>> list(String prefix) {
+		if (prefix == null)
+			return error(BAD_REQUEST);
+
+		var dir = prefix.lastIndexOf('/') + 1;
+		var parent = prefix.substring(0, dir);
+		var namePrefix = prefix.substring(dir);
+
+		var names = new File( rootDir + parent ).list( (d, name) ->
+				name.startsWith(namePrefix) && !name.startsWith(".") && !name.endsWith(HASH_SIDECAR_SUFFIX));
+
+		return ok( names == null ? List.of() : Arrays.stream(names).map(name -> parent + name).toList() );
+	}
+
+	@Override
+	public Result<Void> move(String from, String to) {
+		if (from == null || to == null)
+			return error(BAD_REQUEST);
+
+		var src = toFile( from );
+		if( ! src.exists() )
+			return error(NOT_FOUND);
+
+		var dst = toFile( to );
+		try {
+			if (Files.exists(sidecarOf(src)))
+				Files.move(sidecarOf(src), sidecarOf(dst), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(src.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return ok();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return error(INTERNAL_ERROR);
+		}
+	}
+
+	/**
+	 * Concatenates the part files, by kernel copies, into a temporary sibling file that is then
+	 * moved into place. The hash of the blob is computed the first time it is needed.
+	 */
+	@Override
+	public Result<Void> commitParts(String path, String uploadId, List<Integer> parts) {
+		if (path == null || uploadId == null)
+			return error(BAD_REQUEST);
+
+		var file = toFile( path );
+		if( file.exists() )
+			return error(CONFLICT);
+
+		File tmp = null;
+		try {
+			tmp = File.createTempFile("." + file.getName() + "-", ".part", file.getParentFile());
+			try (var out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+				for (var part : parts) {
+					var partFile = toFile( BlobStorage.partPath(uploadId, part) );
+					if( ! partFile.exists() ) {
+						tmp.delete();
+						return error(NOT_FOUND);
+					}
+					try (var src = FileChannel.open(partFile.toPath(), StandardOpenOption.READ)) {
+						long pos = 0, size = src.size();
+						while (pos < size)
+							pos += src.transferTo(pos, size - pos, out);
+					}
+				}
+			}
+			if (!place(tmp.toPath(), file.toPath())) {
+				tmp.delete();
+				return error(CONFLICT);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (tmp != null)
+				tmp.delete();
+			return error(INTERNAL_ERROR);
+		}
+		return abortParts(path, uploadId, parts);
+	}
+
 	@Override
 	public Result<Void> delete(String path) {
 		if (path == null)
 			return error(BAD_REQUEST);
 
+		var file = toFile( path );
+		if( ! file.exists() )
+			return error(NOT_FOUND);
+
 		try {
-			var file = toFile( path );
 			Files.walk(file.toPath())
 			.sorted(Comparator.reverseOrder())
 			.map(Path::toFile)
 			.forEach(File::delete);
+			Files.deleteIfExists(sidecarOf(file));
 		} catch (IOException e) {
 			e.printStackTrace();
 			return error(INTERNAL_ERROR);
@@ -91,6 +250,149 @@ public class FilesystemStorage implements BlobStorage {
 		return ok();
 	}
 	
+	private InputStream open(File file) {
+		return open(file, 0, Long.MAX_VALUE);
+	}
+
+	private InputStream open(File file, long offset, long length) {
+		try {
+			var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			long size = channel.size();
+			long start = Math.min(offset, size);
+			return new MappedFileInputStream(channel, start, Math.min(length, size - start));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Copies the stream into a temporary sibling file through a pooled buffer,
+	 * hashing it as it is written, then records its SHA-256 and moves it into place.
+	 * A concurrent write of the same blob may have placed it first, in which case this
+	 * one is only OK if it had the same contents.
+	 */
+	private Result<Void> writeFile(File file, InputStream in) {
+		File tmp = null;
+		try (in) {
+			tmp = File.createTempFile("." + file.getName() + "-", ".part", file.getParentFile());
+			byte[] hash;
+			try (var out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+				var hashing = Sha256InputStream.of(in);
+				var pooled = writeBuffers.poll();
+				var buf = pooled != null ? pooled : new byte[WRITE_BUFFER_SIZE];
+				try {
+					// read straight into the array: a channel over the stream would read into
+					// an array of its own and copy from it
+					for (int n; (n = hashing.read(buf)) >= 0;) {
+						var chunk = ByteBuffer.wrap(buf, 0, n);
+						while (chunk.hasRemaining())
+							out.write(chunk);
+					}
+				} finally {
+					if (pooled != null)
+						writeBuffers.offer(pooled);
+				}
+				hash = hashing.sha256();
+			}
+			boolean attribute = storeHashAttribute(tmp.toPath(), hash);
+			if (!place(tmp.toPath(), file.toPath())) {
+				tmp.delete();
+				return Arrays.equals(hash, storedHash(file)) ? ok() : error(CONFLICT);
+			}
+			if (!attribute)
+				Files.write(sidecarOf(file), hash);
+			return ok();
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (tmp != null)
+				tmp.delete();
+			return error(INTERNAL_ERROR);
+		}
+	}
+
+	/**
+	 * Moves a file into place only if nothing is there yet, returning false otherwise.
+	 * A rename would silently replace the target, so the file is hard-linked into place,
+	 * which fails if the target exists, and then unlinked from its temporary name.
+	 */
+	private static boolean place(Path tmp, Path target) throws IOException {
+		try {
+			Files.createLink(target, tmp);
+			Files.delete(tmp);
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} catch (UnsupportedOperationException e) {
+			// no hard links on this filesystem: a move fails too if the target exists, though
+			// not atomically
+			try {
+				Files.move(tmp, target);
+			} catch (FileAlreadyExistsException x) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The SHA-256 of a blob is kept in a user extended attribute of its file, which moves
+	 * along with it. On filesystems without extended attributes, it goes to a sidecar file.
+	 */
+	private void storeHash(Path path, Path sidecar, byte[] hash) throws IOException {
+		if (!storeHashAttribute(path, hash))
+			Files.write(sidecar, hash);
+	}
+
+	/**
+	 * Returns false if the filesystem has no extended attributes, and the hash needs a sidecar.
+	 */
+	private boolean storeHashAttribute(Path path, byte[] hash) {
+		try {
+			var view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+			if (view != null) {
+				view.write(HASH_ATTRIBUTE, ByteBuffer.wrap(hash));
+				return true;
+			}
+		} catch (IOException | UnsupportedOperationException x) {
+			// fall back to the sidecar
+		}
+		return false;
+	}
+
+	/**
+	 * Obtains the SHA-256 of a stored blob, hashing (and recording) it only for blobs
+	 * written before hashes were kept.
+	 */
+	private byte[] storedHash(File file) {
+		var path = file.toPath();
+		try {
+			var view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+			if (view != null && view.list().contains(HASH_ATTRIBUTE)) {
+				var buf = ByteBuffer.allocate(view.size(HASH_ATTRIBUTE));
+				view.read(HASH_ATTRIBUTE, buf);
+				return buf.array();
+			}
+		} catch (IOException | UnsupportedOperationException x) {
+			// fall back to the sidecar
+		}
+
+		var sidecar = sidecarOf(file);
+		try {
+			if (Files.exists(sidecar))
+				return Files.readAllBytes(sidecar);
+
+			var hash = Hash.sha256(open(file));
+			storeHash(path, sidecar, hash);
+			return hash;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Path sidecarOf(File file) {
+		return Path.of(file.getPath() + HASH_SIDECAR_SUFFIX);
+	}
+
 	private File toFile(String path) {
 		var res = new File( rootDir + path );
 		
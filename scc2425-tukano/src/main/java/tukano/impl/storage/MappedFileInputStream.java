@@ -0,0 +1,106 @@
+package tukano.impl.storage;
+
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Streams a region of a file through memory-mapped windows, so reads are served
+ * straight from the page cache, without a read() system call per chunk.
+ *
+ * This is not zero-copy for downloads: JAX-RS writes entities to the container's own
+ * output stream, so the bytes are still copied once from the mapping into its buffers.
+ * Only when the destination of transferTo is backed by a file is the copy handed to
+ * the kernel (FileChannel.transferTo), never crossing user space.
+ */
+class MappedFileInputStream extends InputStream {
+	private static final long WINDOW_SIZE = 16 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long end;
+	private long position;
+	private MappedByteBuffer window;
+
+	MappedFileInputStream(FileChannel channel, long offset, long length) {
+		this.channel = channel;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextWindow())
+			return -1;
+
+		position++;
+		return window.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+
+		if (!nextWindow())
+			return -1;
+
+		int n = Math.min(len, window.remaining());
+		window.get(buf, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(0, Math.min(n, end - position));
+		position += skipped;
+		window = null;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+
+	@Override
+	public long transferTo(OutputStream out) throws IOException {
+		if (!(out instanceof FileOutputStream fos))
+			return super.transferTo(out);
+
+		long start = position;
+		var target = fos.getChannel();
+		while (position < end) {
+			long n = channel.transferTo(position, end - position, target);
+			// nothing left to transfer before the end: the file was truncated or deleted meanwhile
+			if (n <= 0)
+				throw new EOFException("Blob file ended at " + position + " of " + end);
+			position += n;
+		}
+
+		window = null;
+		return position - start;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	private boolean nextWindow() throws IOException {
+		if (window != null && window.hasRemaining())
+			return true;
+
+		if (position >= end)
+			return false;
+
+		window = channel.map(MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+		return true;
+	}
+}
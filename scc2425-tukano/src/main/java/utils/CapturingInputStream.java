@@ -0,0 +1,75 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that keeps a copy of the bytes read through it, as long as
+ * they fit in the given limit. Once the limit is exceeded the copy is dropped,
+ * so the memory used never grows beyond the limit.
+ */
+public class CapturingInputStream extends FilterInputStream {
+
+	private final int limit;
+	private ByteArrayOutputStream captured;
+	private boolean exhausted;
+
+	public CapturingInputStream(InputStream in, int limit) {
+		super(in);
+		this.limit = limit;
+		this.captured = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0)
+			capture(new byte[] { (byte) b }, 0, 1);
+		else
+			exhausted = true;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+		int n = super.read(buf, off, len);
+		if (n > 0)
+			capture(buf, off, n);
+		else if (n < 0)
+			exhausted = true;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		// skipped bytes are not seen, so whatever was captured is no longer a faithful copy
+		captured = null;
+		return super.skip(n);
+	}
+
+	/**
+	 * Tells if the underlying stream was read to the end, ie. if the bytes captured are all there is.
+	 */
+	public boolean exhausted() {
+		return exhausted;
+	}
+
+	/**
+	 * Returns the bytes read so far, or null if they exceeded the limit.
+	 */
+	public byte[] captured() {
+		return captured != null ? captured.toByteArray() : null;
+	}
+
+	private void capture(byte[] buf, int off, int len) {
+		if (captured == null)
+			return;
+
+		if (captured.size() + len > limit)
+			captured = null;
+		else
+			captured.write(buf, off, len);
+	}
+}
@@ -1,6 +1,7 @@
 package utils;
 
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -14,6 +15,10 @@ public class DB {
 		return Hibernate.getInstance().sql(query, clazz);
 	}
 	
+	public static <T> List<T> sql(String query, Class<T> clazz, Map<String, Object> params) {
+		return Hibernate.getInstance().sql(query, clazz, params);
+	}
+	
 	public static <T> List<T> sql(Class<T> clazz, String fmt, Object ... args) {
 		return Hibernate.getInstance().sql(String.format(fmt, args), clazz);
 	}
@@ -1,52 +1,73 @@
 package utils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+/**
+ * Hashing helpers. MessageDigest instances are not thread-safe, so every thread
+ * gets its own, reused across calls.
+ */
 public class Hash {
-		static MessageDigest md5;
-		static MessageDigest sha256;
+		static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> digest("MD5"));
+		static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> digest("SHA-256"));
+		static final int CHUNK_SIZE = 8192;
 				
 		public static byte[] md5( byte[] data ) {
-			if (md5 == null) {
-				try {
-					md5 = MessageDigest.getInstance("MD5");
-				} catch (NoSuchAlgorithmException e) {
-					e.printStackTrace();
-				}
-			}
+			var md5 = Hash.md5.get();
 			md5.reset();
 			md5.update( data == null ? new byte[0] : data );
 			return md5.digest();
 		}
 		
 		public static byte[] sha256( byte[] data ) {
-			if (sha256 == null) {
-				try {
-					sha256 = MessageDigest.getInstance("SHA-256");
-				} catch (NoSuchAlgorithmException e) {
-					e.printStackTrace();
-				}
-			}
+			var sha256 = Hash.sha256.get();
 			sha256.reset();
 			sha256.update( data == null ? new byte[0] : data );
 			return sha256.digest();
 		}
-		
-		
-		synchronized public static String of(Object ...values) {
-			if (md5 == null) {
-				try {
-					md5 = MessageDigest.getInstance("MD5");
-				} catch (NoSuchAlgorithmException e) {
-					e.printStackTrace();
-				}
+
+		/**
+		 * Digests a stream chunk by chunk, using a digest confined to the calling thread.
+		 * The stream is consumed and closed. A stream that is already being hashed as it
+		 * is read (Sha256InputStream) is only drained, not hashed a second time.
+		 * 
+		 * @throws UncheckedIOException if reading fails, including on a checksum mismatch
+		 */
+		public static byte[] sha256( InputStream in ) {
+			try (var hashing = Sha256InputStream.of(in)) {
+				hashing.transferTo(OutputStream.nullOutputStream());
+				return hashing.sha256();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
+		}
+
+		/**
+		 * Returns a new SHA-256 digest, for incremental hashing by a single thread.
+		 */
+		public static MessageDigest sha256Digest() {
+			return digest("SHA-256");
+		}
+		
+		public static String of(Object ...values) {
+			var md5 = Hash.md5.get();
 			md5.reset();
 			for( var o : values )
 				md5.update( o.toString().getBytes() );
 
 			return String.format("%016X", new BigInteger(1, md5.digest()));
 		};
+
+		private static MessageDigest digest(String algorithm) {
+			try {
+				return MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
 }
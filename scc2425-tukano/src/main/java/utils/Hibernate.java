@@ -3,6 +3,7 @@ package utils;
 import java.util.Properties;
 import java.util.logging.Logger;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -100,6 +101,17 @@ public class Hibernate {
 		}
 	}
 
+	/**
+	 * Runs a native query with named parameters, bound rather than pasted into the statement.
+	 */
+	public <T> List<T> sql(String sqlStatement, Class<T> clazz, Map<String, Object> params) {
+		try (var session = sessionFactory.openSession()) {
+			var query = session.createNativeQuery(sqlStatement, clazz);
+			params.forEach(query::setParameter);
+			return query.list();
+		}
+	}
+
 	public <T> Result<T> execute(Consumer<Session> proc) {
 		return execute( (hibernate) -> {
 			proc.accept( hibernate);
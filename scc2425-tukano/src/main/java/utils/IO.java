@@ -35,12 +35,17 @@ final public class IO {
 		}
 	}
 	
+	/**
+	 * Reads the file in chunks of chunkSize bytes, through a single buffer that is
+	 * handed to the sink for every full chunk, so the sink must not keep it. Only the
+	 * last, partial chunk is trimmed with a copy.
+	 */
 	public static void read( File from, int chunkSize, Consumer<byte[]> sink) {
 		try (var fis = new FileInputStream(from)) {
 			int n;
 			var chunk = new byte[chunkSize];
-			while ((n = fis.read(chunk)) > 0)
-				sink.accept(Arrays.copyOf(chunk, n));
+			while ((n = fis.readNBytes(chunk, 0, chunkSize)) > 0)
+				sink.accept(n == chunkSize ? chunk : Arrays.copyOf(chunk, n));
 		} catch (IOException x) {
 			throw new RuntimeException(x);
 		}
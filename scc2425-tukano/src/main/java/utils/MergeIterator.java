@@ -0,0 +1,63 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Lazily merges sources that are each sorted by the same order into a single sorted
+ * sequence, eg. the timelines of the users someone follows into their feed.
+ *
+ * Only the head of each source is held, in a priority queue, and a source is advanced
+ * only when its head is taken. Taking k elements out of n sources reads at most k + n
+ * elements from them, so a source backed by a paged query or a cursor never fetches
+ * more than the merge gets to.
+ */
+public class MergeIterator<T> implements Iterator<T> {
+
+	private final PriorityQueue<Head<T>> heads;
+
+	private record Head<T>(T value, Iterator<? extends T> source) {
+	}
+
+	public MergeIterator(Collection<? extends Iterator<? extends T>> sources, Comparator<? super T> order) {
+		this.heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> order.compare(a.value(), b.value()));
+		for (var source : sources)
+			advance(source);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !heads.isEmpty();
+	}
+
+	@Override
+	public T next() {
+		var head = heads.poll();
+		if (head == null)
+			throw new NoSuchElementException();
+
+		advance(head.source());
+		return head.value();
+	}
+
+	/**
+	 * Returns the first k elements of the merge of the given sources.
+	 */
+	public static <T> List<T> topK(Collection<? extends Iterator<? extends T>> sources, Comparator<? super T> order, int k) {
+		var merge = new MergeIterator<T>(sources, order);
+		var res = new ArrayList<T>(Math.max(0, Math.min(k, 1024)));
+		while (res.size() < k && merge.hasNext())
+			res.add(merge.next());
+		return res;
+	}
+
+	private void advance(Iterator<? extends T> source) {
+		if (source.hasNext())
+			heads.add(new Head<T>(source.next(), source));
+	}
+}
@@ -0,0 +1,109 @@
+package utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * An input stream that computes the SHA-256 of the bytes read through it, in the
+ * same pass. If an expected hash is given, reaching the end of a stream whose
+ * contents do not match it fails with a ChecksumMismatchException, so whoever is
+ * consuming the stream aborts before committing the contents anywhere.
+ *
+ * Stores wrap their input with of(), so a stream hashed by the caller is not hashed again.
+ */
+public class Sha256InputStream extends FilterInputStream {
+
+	private final MessageDigest digest;
+	private final String expected;
+	private byte[] sha256;
+	private boolean mismatched;
+
+	public static class ChecksumMismatchException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		ChecksumMismatchException(String expected, String actual) {
+			super("Checksum mismatch: expected " + expected + ", got " + actual);
+		}
+	}
+
+	/**
+	 * @param expected the hex SHA-256 the contents must match, or null to only compute it
+	 */
+	public Sha256InputStream(InputStream in, String expected) {
+		super(in);
+		this.digest = Hash.sha256Digest();
+		this.expected = expected;
+	}
+
+	public Sha256InputStream(InputStream in) {
+		this(in, null);
+	}
+
+	public static Sha256InputStream of(InputStream in) {
+		return in instanceof Sha256InputStream s ? s : new Sha256InputStream(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0)
+			digest.update((byte) b);
+		else
+			finish();
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+		int n = super.read(buf, off, len);
+		if (n > 0)
+			digest.update(buf, off, n);
+		else if (n < 0)
+			finish();
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		// skipped bytes must still be hashed
+		return Math.max(0, read(new byte[(int) Math.max(0, Math.min(n, Hash.CHUNK_SIZE))]));
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the SHA-256 of the contents, once the stream has been read to the end, or null before that.
+	 */
+	public byte[] sha256() {
+		return sha256;
+	}
+
+	/**
+	 * Returns the hex SHA-256 the contents must match, or null if none was given.
+	 */
+	public String expected() {
+		return expected;
+	}
+
+	/**
+	 * Tells if the contents did not match the expected hash.
+	 */
+	public boolean mismatched() {
+		return mismatched;
+	}
+
+	private void finish() throws IOException {
+		if (sha256 == null)
+			sha256 = digest.digest();
+
+		if (expected != null && !expected.equalsIgnoreCase(Hex.of(sha256))) {
+			mismatched = true;
+			throw new ChecksumMismatchException(expected, Hex.of(sha256));
+		}
+	}
+}
@@ -1,7 +1,19 @@
 package tukano.clients.rest;
 
+import static java.lang.String.format;
+import static tukano.api.Result.error;
+import static tukano.api.Result.ok;
+import static tukano.api.Result.ErrorCode.BAD_REQUEST;
+import static tukano.api.Result.ErrorCode.INTERNAL_ERROR;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import tukano.api.BlobDeletions;
 import tukano.api.Blobs;
 import tukano.api.Result;
 import tukano.api.rest.RestBlobs;
@@ -12,14 +24,57 @@ public class RestBlobsClient extends RestClient implements Blobs {
 		super(serverURI, RestBlobs.PATH);
 	}
 
-	private Result<Void> _upload(String blobURL, byte[] bytes, String token) {
+	private Result<Void> _upload(String blobURL, InputStream data, String checksum, String token) {
 		//System.out.println(blobURL);
 
 		return super.toJavaResult(
 				client.target( blobURL )
 				.queryParam(RestBlobs.TOKEN, token)
 				.request()
-				.post( Entity.entity(bytes, MediaType.APPLICATION_OCTET_STREAM_TYPE)));
+				.header(RestBlobs.CHECKSUM, checksum)
+				.post( Entity.entity(data, MediaType.APPLICATION_OCTET_STREAM_TYPE)));
+	}
+
+	private Result<String> _initiateUpload(String blobURL, String token) {
+		return super.toJavaResult(
+				client.target( blobURL )
+				.path(RestBlobs.UPLOADS)
+				.queryParam(RestBlobs.TOKEN, token)
+				.request()
+				.accept(MediaType.APPLICATION_JSON_TYPE)
+				.post( Entity.json(null)), String.class);
+	}
+
+	private Result<Void> _uploadPart(String blobURL, String uploadId, int part, InputStream data, String checksum, String token) {
+		return super.toJavaResult(
+				client.target( blobURL )
+				.path(RestBlobs.UPLOADS)
+				.path(uploadId)
+				.path(Integer.toString(part))
+				.queryParam(RestBlobs.TOKEN, token)
+				.request()
+				.header(RestBlobs.CHECKSUM, checksum)
+				.put( Entity.entity(data, MediaType.APPLICATION_OCTET_STREAM_TYPE)));
+	}
+
+	private Result<Void> _completeUpload(String blobURL, String uploadId, List<Integer> parts, String token) {
+		return super.toJavaResult(
+				client.target( blobURL )
+				.path(RestBlobs.UPLOADS)
+				.path(uploadId)
+				.queryParam(RestBlobs.TOKEN, token)
+				.request()
+				.post( Entity.entity(parts, MediaType.APPLICATION_JSON_TYPE)));
+	}
+
+	private Result<Void> _abortUpload(String blobURL, String uploadId, String token) {
+		return super.toJavaResult(
+				client.target( blobURL )
+				.path(RestBlobs.UPLOADS)
+				.path(uploadId)
+				.queryParam(RestBlobs.TOKEN, token)
+				.request()
+				.delete());
 	}
 
 	private Result<byte[]> _download(String blobURL, String token) {
@@ -31,6 +86,44 @@ public class RestBlobsClient extends RestClient implements Blobs {
 				.get(), byte[].class);
 	}
 
+	private Result<byte[]> _download(String blobURL, long offset, long length, String token) {
+		var r = client.target( blobURL )
+				.queryParam(RestBlobs.TOKEN, token)
+				.request()
+				.header(RestBlobs.RANGE, format("%s=%d-%d", RestBlobs.BYTES, offset, offset + length - 1))
+				.accept(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+				.get();
+
+		try {
+			return switch (r.getStatus()) {
+				case 206 -> ok(r.readEntity(byte[].class));
+				// the range starts past the end of the blob, so there is nothing to read
+				case 416 -> ok(new byte[0]);
+				default -> super.toJavaResult(r, byte[].class);
+			};
+		} finally {
+			r.close();
+		}
+	}
+
+	private Result<Long> _size(String blobURL, String token) {
+		var r = client.target( blobURL )
+				.queryParam(RestBlobs.TOKEN, token)
+				.request()
+				.head();
+
+		try {
+			if (r.getStatus() != 200)
+				return error(getErrorCodeFrom(r.getStatus()));
+
+			// getLength() is an int, too short for the largest blobs
+			var length = r.getHeaderString(HttpHeaders.CONTENT_LENGTH);
+			return length != null ? ok(Long.parseLong(length)) : error(INTERNAL_ERROR);
+		} finally {
+			r.close();
+		}
+	}
+
 	private Result<Void> _delete(String blobURL, String token) {
 		return super.toJavaResult(
 				client.target( blobURL )
@@ -39,23 +132,63 @@ public class RestBlobsClient extends RestClient implements Blobs {
 				.delete());
 	}
 	
-	private Result<Void> _deleteAllBlobs(String userId, String token) {
+	private Result<BlobDeletions> _deleteAllBlobs(String userId, String token) {
 		return super.toJavaResult(
 				target.path(userId)
 				.path(RestBlobs.BLOBS)
 				.queryParam( RestBlobs.TOKEN, token )
 				.request()
-				.delete());
+				.accept(MediaType.APPLICATION_JSON_TYPE)
+				.delete(), BlobDeletions.class);
 	}
 	
 	@Override
-	public Result<Void> upload(String blobId, byte[] bytes, String token) {
-		return super.reTry( () -> _upload(blobId, bytes, token));
+	public Result<Void> upload(String blobId, InputStream data, String checksum, String token) {
+		// the stream cannot be sent again once consumed by a failed attempt
+		return super.reTry( () -> _upload(blobId, data, checksum, token), 1);
+	}
+
+	@Override
+	public Result<String> initiateUpload(String blobId, String token) {
+		return super.reTry( () -> _initiateUpload(blobId, token));
+	}
+
+	@Override
+	public Result<Void> uploadPart(String blobId, String uploadId, int part, InputStream data, String checksum, String token) {
+		// the stream cannot be sent again once consumed by a failed attempt, so the caller retries the part with a new one
+		return super.reTry( () -> _uploadPart(blobId, uploadId, part, data, checksum, token), 1);
+	}
+
+	@Override
+	public Result<Void> completeUpload(String blobId, String uploadId, List<Integer> parts, String token) {
+		return super.reTry( () -> _completeUpload(blobId, uploadId, parts, token));
+	}
+
+	@Override
+	public Result<Void> abortUpload(String blobId, String uploadId, String token) {
+		return super.reTry( () -> _abortUpload(blobId, uploadId, token));
+	}
+
+	@Override
+	public Result<InputStream> download(String blobId, String token) {
+		var res = super.reTry( () -> _download(blobId, token));
+		return res.isOK() ? ok(new ByteArrayInputStream(res.value())) : error(res.error());
+	}
+
+	@Override
+	public Result<InputStream> download(String blobId, long offset, long length, String token) {
+		if (offset < 0 || length < 0)
+			return error(BAD_REQUEST);
+		if (length == 0)
+			return ok(new ByteArrayInputStream(new byte[0]));
+
+		var res = super.reTry( () -> _download(blobId, offset, length, token));
+		return res.isOK() ? ok(new ByteArrayInputStream(res.value())) : error(res.error());
 	}
 
 	@Override
-	public Result<byte[]> download(String blobId, String token) {
-		return super.reTry( () -> _download(blobId, token));
+	public Result<Long> size(String blobId, String token) {
+		return super.reTry( () -> _size(blobId, token));
 	}
 
 	@Override
@@ -64,7 +197,7 @@ public class RestBlobsClient extends RestClient implements Blobs {
 	}
 	
 	@Override
-	public Result<Void> deleteAllBlobs(String userId, String password) {
+	public Result<BlobDeletions> deleteAllBlobs(String userId, String password) {
 		return super.reTry( () -> _deleteAllBlobs(userId, password));
 	}
 }
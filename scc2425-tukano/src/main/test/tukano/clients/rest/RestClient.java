@@ -49,13 +49,22 @@ public class RestClient {
 	}
 
 	protected <T> Result<T> reTry(Supplier<Result<T>> func) {
-		for (int i = 0; i < MAX_RETRIES; i++)
+		return reTry(func, MAX_RETRIES);
+	}
+
+	/**
+	 * Tries a request up to attempts times, while it times out. Requests with a one-shot
+	 * body, such as a stream, must be tried once, as a failed attempt may have consumed it.
+	 */
+	protected <T> Result<T> reTry(Supplier<Result<T>> func, int attempts) {
+		for (int i = 0; i < attempts; i++)
 			try {
 				return func.get();
 			} catch (ProcessingException x) {
 				x.printStackTrace();
 				Log.fine("Timeout: " + x.getMessage());
-				Sleep.ms(RETRY_SLEEP);
+				if (i + 1 < attempts)
+					Sleep.ms(RETRY_SLEEP);
 			} catch (Exception x) {
 				x.printStackTrace();
 				return Result.error(INTERNAL_ERROR);
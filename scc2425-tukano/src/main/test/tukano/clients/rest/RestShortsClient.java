@@ -3,6 +3,7 @@ package tukano.clients.rest;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.GenericType;
 import jakarta.ws.rs.core.MediaType;
+import tukano.api.FeedPage;
 import tukano.api.Result;
 import tukano.api.Short;
 import tukano.api.Shorts;
@@ -97,15 +98,35 @@ public class RestShortsClient extends RestClient implements Shorts{
 				.get(), new GenericType<List<String>>() {});
 	}
 
-	public Result<List<String>> _getFeed(String userId, String password) {
+	public Result<Boolean> _liked(String shortId, String userId, String password) {
 		return super.toJavaResult(
 				target
+				.path(shortId)
 				.path(userId)
-				.path(RestShorts.FEED)
+				.path(RestShorts.LIKES)
 				.queryParam(RestShorts.PWD, password )
 				.request()
 				.accept( MediaType.APPLICATION_JSON)
-				.get(), new GenericType<List<String>>() {});
+				.get(), Boolean.class);
+	}
+
+	public Result<FeedPage> _getFeed(String userId, String password, Integer limit, String cursor, Long since) {
+		var feedTarget = target
+				.path(userId)
+				.path(RestShorts.FEED)
+				.queryParam(RestShorts.PWD, password );
+		if (limit != null)
+			feedTarget = feedTarget.queryParam(RestShorts.LIMIT, limit);
+		if (cursor != null)
+			feedTarget = feedTarget.queryParam(RestShorts.CURSOR, cursor);
+		if (since != null)
+			feedTarget = feedTarget.queryParam(RestShorts.SINCE, since);
+
+		return super.toJavaResult(
+				feedTarget
+				.request()
+				.accept( MediaType.APPLICATION_JSON)
+				.get(), FeedPage.class);
 	}
 
 	public Result<Void> _deleteAllShorts(String userId, String password, String token) {
@@ -168,8 +189,13 @@ public class RestShortsClient extends RestClient implements Shorts{
 	}
 
 	@Override
-	public Result<List<String>> getFeed(String userId, String password) {
-		return super.reTry( () -> _getFeed(userId, password));
+	public Result<Boolean> liked(String shortId, String userId, String password) {
+		return super.reTry( () -> _liked(shortId, userId, password));
+	}
+
+	@Override
+	public Result<FeedPage> getFeed(String userId, String password, Integer limit, String cursor, Long since) {
+		return super.reTry( () -> _getFeed(userId, password, limit, cursor, since));
 	}
 
 	@Override